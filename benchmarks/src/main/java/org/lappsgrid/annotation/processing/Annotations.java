@@ -0,0 +1,77 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Creates annotation instances for the benchmarks.  The LAPPS annotations
+ * have SOURCE retention so they can not be obtained through reflection.
+ *
+ * @author Keith Suderman
+ */
+class Annotations
+{
+	private Annotations() { }
+
+	/**
+	 * Returns an instance of the annotation type that returns the given
+	 * values, or the annotation's default values for members not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends Annotation> T create(final Class<T> type, final Map<String,Object> values)
+	{
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				String name = method.getName();
+				if ("annotationType".equals(name))
+				{
+					return type;
+				}
+				if ("toString".equals(name))
+				{
+					return "@" + type.getName() + values;
+				}
+				if ("hashCode".equals(name))
+				{
+					return values.hashCode();
+				}
+				if ("equals".equals(name))
+				{
+					return proxy == args[0];
+				}
+				Object value = values.get(name);
+				if (value == null)
+				{
+					value = method.getDefaultValue();
+				}
+				if (value instanceof String[])
+				{
+					return ((String[]) value).clone();
+				}
+				return value;
+			}
+		};
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+}
@@ -0,0 +1,101 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotations.CommonMetadata;
+import org.lappsgrid.annotations.ServiceMetadata;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of merging the {@literal @}CommonMetadata and {@literal @}ServiceMetadata
+ * annotations and reading every merged value once.
+ *
+ * @author Keith Suderman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombinedMetadataBenchmark
+{
+	private CommonMetadata common;
+	private ServiceMetadata service;
+	private AnnotationValues commonValues;
+	private AnnotationValues serviceValues;
+
+	@Setup
+	public void setup()
+	{
+		Map<String,Object> values = new HashMap<>();
+		values.put("vendor", "http://www.anc.org");
+		values.put("license", "apache2");
+		values.put("format", new String[] { "lif" });
+		values.put("encoding", "UTF-8");
+		values.put("language", new String[] { "en" });
+		common = Annotations.create(CommonMetadata.class, values);
+
+		values = new HashMap<>();
+		values.put("description", "A benchmark service");
+		values.put("requires", new String[] { "token" });
+		values.put("produces", new String[] { "pos" });
+		values.put("produces_tagsets", new String[] { "pos tags-pos-penntb" });
+		service = Annotations.create(ServiceMetadata.class, values);
+		commonValues = AnnotationValues.of(common);
+		serviceValues = AnnotationValues.of(service);
+	}
+
+	/**
+	 * Only the merge, the values have already been read from the annotations
+	 * as the processor does.
+	 */
+	@Benchmark
+	public CombinedMetadata mergeValues()
+	{
+		return new CombinedMetadata(commonValues, serviceValues);
+	}
+
+	@Benchmark
+	public void merge(Blackhole bh)
+	{
+		CombinedMetadata combined = new CombinedMetadata(common, service);
+		bh.consume(combined.name());
+		bh.consume(combined.description());
+		bh.consume(combined.version());
+		bh.consume(combined.toolVersion());
+		bh.consume(combined.vendor());
+		bh.consume(combined.allow());
+		bh.consume(combined.license());
+		bh.consume(combined.licenseDesc());
+		bh.consume(combined.inputEncoding());
+		bh.consume(combined.outputEncoding());
+		bh.consume(combined.inputLanguage());
+		bh.consume(combined.outputLanguage());
+		bh.consume(combined.inputFormat());
+		bh.consume(combined.outputFormat());
+		bh.consume(combined.inputTagSets());
+		bh.consume(combined.outputTagSets());
+		bh.consume(combined.requires());
+		bh.consume(combined.produces());
+	}
+}
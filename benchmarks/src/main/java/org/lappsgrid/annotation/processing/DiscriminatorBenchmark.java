@@ -0,0 +1,100 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.discriminator.Discriminator;
+import org.lappsgrid.discriminator.DiscriminatorRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of the discriminator short names used in annotations, as done
+ * by <code>MetadataProcessor.getValue</code>.
+ *
+ * @author Keith Suderman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscriminatorBenchmark
+{
+	private static final String[] VALUES = {
+			"lif", "text", "gate", "token", "sentence", "pos", "ne", "apache2",
+			"any", "not-a-discriminator", "http://vocab.lappsgrid.org/Token"
+	};
+
+	private DiscriminatorResolver warm;
+
+	@Setup
+	public void setup()
+	{
+		warm = new DiscriminatorResolver();
+		for (String value : VALUES)
+		{
+			warm.getValue(value);
+		}
+	}
+
+	@Benchmark
+	public void registry(Blackhole bh)
+	{
+		for (String value : VALUES)
+		{
+			if (value.startsWith("http"))
+			{
+				bh.consume(value);
+				continue;
+			}
+			Discriminator d = DiscriminatorRegistry.getByName(value);
+			bh.consume(d == null ? value : d.getUri());
+		}
+	}
+
+	@Benchmark
+	public void table(Blackhole bh)
+	{
+		DiscriminatorTable table = DiscriminatorTable.getInstance();
+		for (String value : VALUES)
+		{
+			bh.consume(table.get(value));
+		}
+	}
+
+	@Benchmark
+	public void resolverCold(Blackhole bh)
+	{
+		DiscriminatorResolver resolver = new DiscriminatorResolver();
+		for (String value : VALUES)
+		{
+			bh.consume(resolver.getValue(value));
+		}
+	}
+
+	@Benchmark
+	public void resolverWarm(Blackhole bh)
+	{
+		for (String value : VALUES)
+		{
+			bh.consume(warm.getValue(value));
+		}
+	}
+}
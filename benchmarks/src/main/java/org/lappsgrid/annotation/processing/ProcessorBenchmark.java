@@ -0,0 +1,134 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of the {@link MetadataProcessor} over synthetic
+ * sources.  Each invocation runs javac with <code>-proc:only</code> so the
+ * time is dominated by parsing, attribution of the annotations and the
+ * processor itself.
+ *
+ * @author Keith Suderman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessorBenchmark
+{
+	@Param({"10", "100", "1000", "10000"})
+	public int classes;
+
+	private List<JavaFileObject> sources;
+	private File output;
+	private JavaCompiler compiler;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		compiler = ToolProvider.getSystemJavaCompiler();
+		output = Files.createTempDirectory("processor").toFile();
+		sources = new ArrayList<>(classes + 1);
+		sources.add(new Source("bench.Base",
+				"package bench;\n" +
+				"import org.lappsgrid.annotations.CommonMetadata;\n" +
+				"@CommonMetadata(vendor=\"http://www.anc.org\", license=\"apache2\", format=\"lif\", encoding=\"UTF-8\", language=\"en\")\n" +
+				"public abstract class Base { }\n"));
+		for (int i = 0; i < classes; ++i)
+		{
+			String name = "Service" + i;
+			sources.add(new Source("bench." + name,
+					"package bench;\n" +
+					"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+					"@ServiceMetadata(\n" +
+					"    description=\"Synthetic service " + i + "\",\n" +
+					"    requires={\"token\"},\n" +
+					"    produces={\"pos\"},\n" +
+					"    produces_tagsets={\"pos tags-pos-penntb\"}\n" +
+					")\n" +
+					"public class " + name + " extends Base { }\n"));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanup()
+	{
+		delete(output);
+	}
+
+	@Benchmark
+	public Boolean process()
+	{
+		List<String> options = Arrays.asList(
+				"-proc:only",
+				"-d", output.getPath(),
+				"-Alappsgrid.output=filer",
+				"-Alappsgrid.version=1.0.0");
+		JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), null, null, options, null, sources);
+		task.setProcessors(Collections.singletonList(new MetadataProcessor()));
+		return task.call();
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class Source extends SimpleJavaFileObject
+	{
+		private final String code;
+
+		Source(String className, String code)
+		{
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors)
+		{
+			return code;
+		}
+	}
+}
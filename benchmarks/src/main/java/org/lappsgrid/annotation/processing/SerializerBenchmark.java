@@ -0,0 +1,83 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.metadata.IOSpecification;
+import org.lappsgrid.metadata.ServiceMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a typical ServiceMetadata object to JSON bytes.
+ *
+ * @author Keith Suderman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark
+{
+	private ServiceMetadata metadata;
+	private MetadataEmitter pretty;
+	private MetadataEmitter compact;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		metadata = new ServiceMetadata();
+		metadata.setName("org.lappsgrid.benchmark.Service");
+		metadata.setDescription("A service used for benchmarking.");
+		metadata.setVendor("http://www.lappsgrid.org");
+		metadata.setLicense("http://vocab.lappsgrid.org/ns/license#apache-2.0");
+		metadata.setAllow("http://vocab.lappsgrid.org/ns/allow#any");
+		metadata.setVersion("1.0.0");
+		IOSpecification requires = metadata.getRequires();
+		requires.getFormat().add("http://vocab.lappsgrid.org/ns/media/jsonld#lif");
+		requires.getLanguage().add("en");
+		requires.getAnnotations().add("http://vocab.lappsgrid.org/Token");
+		IOSpecification produces = metadata.getProduces();
+		produces.getFormat().add("http://vocab.lappsgrid.org/ns/media/jsonld#lif");
+		produces.getLanguage().add("en");
+		produces.getAnnotations().add("http://vocab.lappsgrid.org/Token#pos");
+		pretty = new MetadataEmitter(true);
+		compact = new MetadataEmitter(false);
+	}
+
+	@Benchmark
+	public byte[] serializer() throws IOException
+	{
+		return Serializer.toJson(metadata).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] emitterPretty() throws IOException
+	{
+		return pretty.emit(metadata);
+	}
+
+	@Benchmark
+	public byte[] emitterCompact() throws IOException
+	{
+		return compact.emit(metadata);
+	}
+}
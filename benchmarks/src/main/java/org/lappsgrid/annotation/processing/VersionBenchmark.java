@@ -0,0 +1,101 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the project version from a pom.xml file.
+ *
+ * @author Keith Suderman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark
+{
+	private File directory;
+	private File pom;
+	private VersionResolver resolved;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Files.createTempDirectory("version").toFile();
+		pom = new File(directory, "pom.xml");
+		StringBuilder xml = new StringBuilder();
+		xml.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+		xml.append("  <modelVersion>4.0.0</modelVersion>\n");
+		xml.append("  <parent><groupId>org.lappsgrid.maven</groupId><artifactId>parent-pom</artifactId><version>2.2.3</version></parent>\n");
+		xml.append("  <groupId>org.lappsgrid</groupId>\n");
+		xml.append("  <artifactId>benchmark</artifactId>\n");
+		xml.append("  <version>1.2.3</version>\n");
+		xml.append("  <dependencies>\n");
+		for (int i = 0; i < 50; ++i)
+		{
+			xml.append("    <dependency><groupId>g</groupId><artifactId>a").append(i).append("</artifactId><version>1.0</version></dependency>\n");
+		}
+		xml.append("  </dependencies>\n");
+		xml.append("</project>\n");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(pom), StandardCharsets.UTF_8))
+		{
+			writer.write(xml.toString());
+		}
+		resolved = new VersionResolver(null, directory);
+		resolved.getProjectVersion();
+	}
+
+	@TearDown
+	public void cleanup()
+	{
+		pom.delete();
+		directory.delete();
+	}
+
+	/** Streams through the pom every time. */
+	@Benchmark
+	public String parsePom()
+	{
+		return VersionResolver.readPom(pom);
+	}
+
+	/** A new processing environment, i.e. served from the path/mtime cache. */
+	@Benchmark
+	public String newResolver()
+	{
+		return new VersionResolver(null, directory).resolve("");
+	}
+
+	/** Repeated lookups in the same processing environment. */
+	@Benchmark
+	public String sameResolver()
+	{
+		return resolved.resolve("");
+	}
+}
@@ -0,0 +1,293 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import org.lappsgrid.annotations.CommonMetadata;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the values of an annotation from its {@link AnnotationMirror}.
+ * <p>
+ * Unlike <code>Element.getAnnotation</code> this does not create a dynamic
+ * proxy whose methods use reflection and clone arrays on every call; each
+ * value is converted once and the defaults of each annotation type are only
+ * read the first time the type is seen.  Must only be used on the compiler's
+ * thread.
+ * <p>
+ * The {@literal @}CommonMetadata of a type is merged from the whole super
+ * class chain and the packages of the type, see
+ * {@link #extractCommon(TypeElement)}.
+ *
+ * @author Keith Suderman
+ */
+class AnnotationExtractor
+{
+	private final Elements elements;
+	private final Map<String,Map<String,Object>> defaults = new HashMap<>();
+
+	/**
+	 * The explicitly set {@literal @}CommonMetadata values merged over each
+	 * class and its super classes, or null if none of them are annotated.
+	 */
+	private final Map<TypeElement,Map<String,Object>> chains = new HashMap<>();
+
+	/**
+	 * The explicitly set {@literal @}CommonMetadata values merged over each
+	 * package and its parent packages, keyed by package name.
+	 */
+	private final Map<String,PackageDefaults> packages = new HashMap<>();
+
+	public AnnotationExtractor(Elements elements)
+	{
+		this.elements = elements;
+	}
+
+	/**
+	 * Returns the values of the annotation, including inherited annotations,
+	 * or null if the element is not annotated.
+	 */
+	public AnnotationValues extract(Element element, Class<? extends Annotation> annotation)
+	{
+		String name = annotation.getCanonicalName();
+		AnnotationMirror mirror = find(elements.getAllAnnotationMirrors(element), name);
+		if (mirror == null)
+		{
+			return null;
+		}
+		TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+		Map<String,Object> values = new HashMap<>(getDefaults(name, type));
+		values.putAll(getExplicitValues(mirror));
+		return new AnnotationValues(name, values);
+	}
+
+	/**
+	 * Merges the {@literal @}CommonMetadata annotations of the type, all of
+	 * its super classes, its package and the parent packages, in that order
+	 * of precedence.  For each member the value set on the nearest class or
+	 * package wins, members that are not set anywhere get their default value.
+	 * The merged values of each class and package are cached so services that
+	 * share a base class or package only resolve them once.
+	 *
+	 * @return the merged values or null if there is no {@literal @}CommonMetadata
+	 * annotation on any of the classes or packages.
+	 */
+	public AnnotationValues extractCommon(TypeElement type)
+	{
+		String pkg = elements.getPackageOf(type).getQualifiedName().toString();
+		Map<String,Object> merged = AnnotationValues.merge(getChain(type), getPackage(pkg).values);
+		if (merged == null)
+		{
+			return null;
+		}
+		String name = CommonMetadata.class.getCanonicalName();
+		Map<String,Object> values = new HashMap<>(getDefaults(name, elements.getTypeElement(name)));
+		values.putAll(merged);
+		return new AnnotationValues(name, values);
+	}
+
+	/**
+	 * The package of the type and its parent packages that have a
+	 * {@literal @}CommonMetadata annotation, nearest first.  Files generated
+	 * for the type also depend on these packages.
+	 */
+	public List<PackageElement> getAnnotatedPackages(TypeElement type)
+	{
+		return getPackage(elements.getPackageOf(type).getQualifiedName().toString()).annotated;
+	}
+
+	/**
+	 * Forgets the merged classes and packages.  Called at the start of each
+	 * round since the compiler may create new elements for the same classes.
+	 */
+	public void reset()
+	{
+		chains.clear();
+		packages.clear();
+	}
+
+	private Map<String,Object> getChain(TypeElement type)
+	{
+		if (chains.containsKey(type))
+		{
+			return chains.get(type);
+		}
+		Map<String,Object> parent = null;
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() == TypeKind.DECLARED)
+		{
+			parent = getChain((TypeElement) ((DeclaredType) superclass).asElement());
+		}
+		// Only the annotation declared on the type itself, not the inherited one.
+		Map<String,Object> chain = AnnotationValues.merge(getDeclaredCommon(type), parent);
+		chains.put(type, chain);
+		return chain;
+	}
+
+	/**
+	 * The merged values of a package and its parent packages. Packages from
+	 * other jars only have the runtime retained annotations, the source
+	 * annotations need a <code>package-info.java</code> in the same
+	 * compilation.
+	 */
+	private PackageDefaults getPackage(String name)
+	{
+		PackageDefaults defaults = packages.get(name);
+		if (defaults != null)
+		{
+			return defaults;
+		}
+		PackageDefaults parent = PackageDefaults.NONE;
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+		{
+			parent = getPackage(name.substring(0, dot));
+		}
+		Map<String,Object> own = null;
+		PackageElement element = name.length() == 0 ? null : elements.getPackageElement(name);
+		if (element != null)
+		{
+			own = getDeclaredCommon(element);
+		}
+		if (own == null)
+		{
+			defaults = parent;
+		}
+		else
+		{
+			List<PackageElement> annotated = new ArrayList<>();
+			annotated.add(element);
+			annotated.addAll(parent.annotated);
+			defaults = new PackageDefaults(AnnotationValues.merge(own, parent.values), annotated);
+		}
+		packages.put(name, defaults);
+		return defaults;
+	}
+
+	private Map<String,Object> getDeclaredCommon(Element element)
+	{
+		List<? extends AnnotationMirror> mirrors = element.getAnnotationMirrors();
+		AnnotationMirror mirror = find(mirrors, CommonMetadata.class.getCanonicalName());
+		if (mirror == null)
+		{
+			mirror = find(mirrors, org.lappsgrid.annotations.retained.CommonMetadata.class.getCanonicalName());
+		}
+		if (mirror == null)
+		{
+			return null;
+		}
+		return getExplicitValues(mirror);
+	}
+
+	private AnnotationMirror find(List<? extends AnnotationMirror> mirrors, String name)
+	{
+		for (AnnotationMirror mirror : mirrors)
+		{
+			TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+			if (type.getQualifiedName().contentEquals(name))
+			{
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The values that are set in the source, without the defaults.
+	 */
+	private Map<String,Object> getExplicitValues(AnnotationMirror mirror)
+	{
+		Map<String,Object> values = new HashMap<>();
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet())
+		{
+			values.put(entry.getKey().getSimpleName().toString(), convert(entry.getValue()));
+		}
+		return values;
+	}
+
+	private Map<String,Object> getDefaults(String name, TypeElement type)
+	{
+		Map<String,Object> values = defaults.get(name);
+		if (values == null)
+		{
+			values = new HashMap<>();
+			for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements()))
+			{
+				AnnotationValue value = method.getDefaultValue();
+				if (value != null)
+				{
+					values.put(method.getSimpleName().toString(), convert(value));
+				}
+			}
+			defaults.put(name, values);
+		}
+		return values;
+	}
+
+	/**
+	 * Arrays become String arrays, everything else is kept as is. Our
+	 * annotations only have String and String[] members.
+	 */
+	private Object convert(AnnotationValue value)
+	{
+		Object object = value.getValue();
+		if (object instanceof List)
+		{
+			List<?> list = (List<?>) object;
+			String[] array = new String[list.size()];
+			for (int i = 0; i < array.length; ++i)
+			{
+				array[i] = String.valueOf(((AnnotationValue) list.get(i)).getValue());
+			}
+			return array;
+		}
+		return object;
+	}
+
+	/**
+	 * The merged values of a package and the packages they came from.
+	 */
+	private static class PackageDefaults
+	{
+		static final PackageDefaults NONE = new PackageDefaults(null, Collections.<PackageElement>emptyList());
+
+		final Map<String,Object> values;
+		final List<PackageElement> annotated;
+
+		PackageDefaults(Map<String,Object> values, List<PackageElement> annotated)
+		{
+			this.values = values;
+			this.annotated = annotated;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable copy of the values of one annotation.
+ * <p>
+ * The values are copied once, on the compiler's thread, so the rest of the
+ * metadata generation can run on other threads without touching the
+ * compiler's annotation objects.  Values are either Strings or String arrays;
+ * the arrays are shared and must not be modified.
+ *
+ * @author Keith Suderman
+ */
+public final class AnnotationValues
+{
+	private final String annotationType;
+	private final Map<String,Object> values;
+
+	public AnnotationValues(String annotationType, Map<String,Object> values)
+	{
+		this.annotationType = annotationType;
+		this.values = Collections.unmodifiableMap(new HashMap<>(values));
+	}
+
+	/**
+	 * Copies the values of an annotation by calling each of its members once.
+	 * The processor reads the values with an {@link AnnotationExtractor}
+	 * instead, this is for code that only has the annotation object.
+	 *
+	 * @return the values or null if the annotation is null.
+	 */
+	public static AnnotationValues of(Annotation annotation)
+	{
+		if (annotation == null)
+		{
+			return null;
+		}
+		return new AnnotationValues(annotation.annotationType().getName(), getValues(annotation, false));
+	}
+
+	/**
+	 * Reads the members of an annotation by reflection.
+	 *
+	 * @param explicit only include the members whose value is not the
+	 *                 default value. Reflection can not tell whether a
+	 *                 member was set to its default explicitly.
+	 */
+	static Map<String,Object> getValues(Annotation annotation, boolean explicit)
+	{
+		Class<? extends Annotation> type = annotation.annotationType();
+		Map<String,Object> values = new HashMap<>();
+		for (Method method : type.getDeclaredMethods())
+		{
+			Object value;
+			try
+			{
+				value = method.invoke(annotation);
+			}
+			catch (IllegalAccessException | InvocationTargetException e)
+			{
+				throw new IllegalStateException("Unable to read " + type.getName() + "." + method.getName(), e);
+			}
+			if (!explicit || !Objects.deepEquals(value, method.getDefaultValue()))
+			{
+				values.put(method.getName(), value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Values in the child that are not empty replace the values of the parent.
+	 * Either may be null.
+	 */
+	static Map<String,Object> merge(Map<String,Object> child, Map<String,Object> parent)
+	{
+		if (child == null)
+		{
+			return parent;
+		}
+		if (parent == null)
+		{
+			return Collections.unmodifiableMap(child);
+		}
+		Map<String,Object> merged = new HashMap<>(parent);
+		for (Map.Entry<String,Object> entry : child.entrySet())
+		{
+			if (CombinedMetadata.hasValue(entry.getValue()))
+			{
+				merged.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return Collections.unmodifiableMap(merged);
+	}
+
+	/** The fully qualified name of the annotation type. */
+	public String getAnnotationType()
+	{
+		return annotationType;
+	}
+
+	public Object get(String name)
+	{
+		return values.get(name);
+	}
+
+	public String getString(String name)
+	{
+		return (String) values.get(name);
+	}
+
+	public String[] getStrings(String name)
+	{
+		return (String[]) values.get(name);
+	}
+
+	public Map<String,Object> asMap()
+	{
+		return values;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "@" + annotationType + values;
+	}
+}
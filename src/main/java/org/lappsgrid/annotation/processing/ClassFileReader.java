@@ -0,0 +1,354 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A minimal class file parser that only reads what the
+ * {@link MetadataScanner} needs: the name, super class and access flags of
+ * the class and the values of selected class annotations.
+ * <p>
+ * The constant pool is only indexed, strings are decoded when an annotation
+ * refers to them.  Fields, methods and all other attributes are skipped.
+ * Annotations are read from the <code>RuntimeVisibleAnnotations</code> and
+ * <code>RuntimeInvisibleAnnotations</code> attributes; only String and
+ * String[] members are kept.  Like {@link AnnotationExtractor#extract} the
+ * class file only contains the members that were set explicitly.
+ *
+ * @author Keith Suderman
+ */
+class ClassFileReader
+{
+	static final int ACC_INTERFACE = 0x0200;
+	static final int ACC_ABSTRACT = 0x0400;
+	static final int ACC_ANNOTATION = 0x2000;
+	static final int ACC_ENUM = 0x4000;
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private final Set<String> annotations;
+
+	/**
+	 * @param annotations the names of the annotation types to read.
+	 */
+	ClassFileReader(Set<String> annotations)
+	{
+		this.annotations = annotations;
+	}
+
+	/**
+	 * Parses a class file.
+	 *
+	 * @throws IOException if the bytes are not a valid class file.
+	 */
+	ClassInfo read(byte[] bytes) throws IOException
+	{
+		try
+		{
+			return parse(ByteBuffer.wrap(bytes));
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+		{
+			throw new IOException("Invalid class file", e);
+		}
+	}
+
+	private ClassInfo parse(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.getInt() != MAGIC)
+		{
+			throw new IOException("Not a class file");
+		}
+		buffer.getShort(); // minor version
+		buffer.getShort(); // major version
+		int count = buffer.getShort() & 0xffff;
+		int[] offsets = new int[count];
+		for (int i = 1; i < count; ++i)
+		{
+			offsets[i] = buffer.position();
+			int tag = buffer.get();
+			switch (tag)
+			{
+				case 1: // Utf8
+				{
+					int length = buffer.getShort() & 0xffff;
+					buffer.position(buffer.position() + length);
+					break;
+				}
+				case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+					buffer.position(buffer.position() + 2);
+					break;
+				case 15: // MethodHandle
+					buffer.position(buffer.position() + 3);
+					break;
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+					buffer.position(buffer.position() + 4);
+					break;
+				case 5: case 6: // Long and Double take two entries
+					buffer.position(buffer.position() + 8);
+					++i;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		ConstantPool pool = new ConstantPool(buffer, offsets);
+		int access = buffer.getShort() & 0xffff;
+		String name = pool.getClassName(buffer.getShort() & 0xffff);
+		int superIndex = buffer.getShort() & 0xffff;
+		String superName = superIndex == 0 ? null : pool.getClassName(superIndex);
+		int interfaces = buffer.getShort() & 0xffff;
+		buffer.position(buffer.position() + interfaces * 2);
+		skipMembers(buffer); // fields
+		skipMembers(buffer); // methods
+		Map<String,Map<String,Object>> values = null;
+		int attributes = buffer.getShort() & 0xffff;
+		for (int i = 0; i < attributes; ++i)
+		{
+			String attribute = pool.getUtf8(buffer.getShort() & 0xffff);
+			int length = buffer.getInt();
+			int end = buffer.position() + length;
+			if ("RuntimeVisibleAnnotations".equals(attribute) || "RuntimeInvisibleAnnotations".equals(attribute))
+			{
+				int n = buffer.getShort() & 0xffff;
+				for (int j = 0; j < n; ++j)
+				{
+					String type = pool.getUtf8(buffer.getShort() & 0xffff);
+					// Descriptors have the form Lpkg/Name;
+					String annotation = type.substring(1, type.length() - 1).replace('/', '.');
+					Map<String,Object> members = readMembers(buffer, pool, annotations.contains(annotation));
+					if (members != null)
+					{
+						if (values == null)
+						{
+							values = new HashMap<>();
+						}
+						values.put(annotation, members);
+					}
+				}
+			}
+			buffer.position(end);
+		}
+		if (values == null)
+		{
+			values = Collections.emptyMap();
+		}
+		return new ClassInfo(name, superName, access, values);
+	}
+
+	private void skipMembers(ByteBuffer buffer)
+	{
+		int count = buffer.getShort() & 0xffff;
+		for (int i = 0; i < count; ++i)
+		{
+			buffer.position(buffer.position() + 6); // access, name and descriptor
+			int attributes = buffer.getShort() & 0xffff;
+			for (int j = 0; j < attributes; ++j)
+			{
+				buffer.position(buffer.position() + 2);
+				int length = buffer.getInt();
+				buffer.position(buffer.position() + length);
+			}
+		}
+	}
+
+	/**
+	 * Reads the element value pairs of an annotation.
+	 *
+	 * @param keep false to skip the annotation.
+	 * @return the String and String[] members or null if keep is false.
+	 */
+	private Map<String,Object> readMembers(ByteBuffer buffer, ConstantPool pool, boolean keep) throws IOException
+	{
+		Map<String,Object> members = keep ? new HashMap<>() : null;
+		int pairs = buffer.getShort() & 0xffff;
+		for (int i = 0; i < pairs; ++i)
+		{
+			int name = buffer.getShort() & 0xffff;
+			Object value = readValue(buffer, pool, keep);
+			if (keep && value != null)
+			{
+				members.put(pool.getUtf8(name), value);
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Reads one element value.  Returns a String for string constants, a
+	 * String[] for arrays of strings and null for everything else or if keep
+	 * is false.
+	 */
+	private Object readValue(ByteBuffer buffer, ConstantPool pool, boolean keep) throws IOException
+	{
+		int tag = buffer.get();
+		switch (tag)
+		{
+			case 's':
+			{
+				int index = buffer.getShort() & 0xffff;
+				return keep ? pool.getUtf8(index) : null;
+			}
+			case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 'c':
+				buffer.position(buffer.position() + 2);
+				return null;
+			case 'e':
+				buffer.position(buffer.position() + 4);
+				return null;
+			case '@':
+				buffer.position(buffer.position() + 2);
+				readMembers(buffer, pool, false);
+				return null;
+			case '[':
+			{
+				int n = buffer.getShort() & 0xffff;
+				String[] strings = keep ? new String[n] : null;
+				for (int i = 0; i < n; ++i)
+				{
+					Object value = readValue(buffer, pool, keep);
+					if (strings != null)
+					{
+						if (value instanceof String)
+						{
+							strings[i] = (String) value;
+						}
+						else
+						{
+							strings = null;
+						}
+					}
+				}
+				return strings;
+			}
+			default:
+				throw new IOException("Unknown element value tag " + (char) tag);
+		}
+	}
+
+	/**
+	 * Decodes constant pool entries on demand.
+	 */
+	private static class ConstantPool
+	{
+		private final ByteBuffer buffer;
+		private final int[] offsets;
+
+		ConstantPool(ByteBuffer buffer, int[] offsets)
+		{
+			this.buffer = buffer;
+			this.offsets = offsets;
+		}
+
+		/** The dotted name of a CONSTANT_Class entry. */
+		String getClassName(int index) throws IOException
+		{
+			int offset = offsets[index];
+			if (buffer.get(offset) != 7)
+			{
+				throw new IOException("Constant " + index + " is not a class");
+			}
+			return getUtf8(buffer.getShort(offset + 1) & 0xffff).replace('/', '.');
+		}
+
+		String getUtf8(int index) throws IOException
+		{
+			int offset = offsets[index];
+			if (buffer.get(offset) != 1)
+			{
+				throw new IOException("Constant " + index + " is not a string");
+			}
+			int length = buffer.getShort(offset + 1) & 0xffff;
+			return decode(buffer.array(), buffer.arrayOffset() + offset + 3, length);
+		}
+
+		/**
+		 * Decodes modified UTF-8.  Plain ASCII, by far the most common case,
+		 * is decoded directly.
+		 */
+		private static String decode(byte[] bytes, int offset, int length) throws IOException
+		{
+			boolean ascii = true;
+			for (int i = 0; i < length && ascii; ++i)
+			{
+				ascii = bytes[offset + i] > 0;
+			}
+			if (ascii)
+			{
+				return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+			}
+			char[] chars = new char[length];
+			int n = 0;
+			int i = offset;
+			int end = offset + length;
+			while (i < end)
+			{
+				int b = bytes[i++] & 0xff;
+				if (b < 0x80)
+				{
+					chars[n++] = (char) b;
+				}
+				else if ((b & 0xe0) == 0xc0 && i < end)
+				{
+					chars[n++] = (char) (((b & 0x1f) << 6) | (bytes[i++] & 0x3f));
+				}
+				else if ((b & 0xf0) == 0xe0 && i + 1 < end)
+				{
+					chars[n++] = (char) (((b & 0x0f) << 12) | ((bytes[i++] & 0x3f) << 6) | (bytes[i++] & 0x3f));
+				}
+				else
+				{
+					throw new IOException("Invalid modified UTF-8 in constant pool");
+				}
+			}
+			return new String(chars, 0, n);
+		}
+	}
+
+	/**
+	 * What the scanner needs to know about one class.
+	 */
+	static class ClassInfo
+	{
+		final String name;
+		final String superName;
+		final int access;
+		/** The explicitly set members of the annotations, by annotation type. */
+		final Map<String,Map<String,Object>> annotations;
+
+		ClassInfo(String name, String superName, int access, Map<String,Map<String,Object>> annotations)
+		{
+			this.name = name;
+			this.superName = superName;
+			this.access = access;
+			this.annotations = annotations;
+		}
+
+		/** True for classes the processor would generate metadata for. */
+		boolean isConcrete()
+		{
+			return (access & (ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION | ACC_ENUM)) == 0;
+		}
+	}
+}
@@ -30,315 +30,211 @@ import org.lappsgrid.annotations.ServiceMetadata;
  */
 public class CombinedMetadata
 {
-	private CommonMetadata common;
-	private ServiceMetadata service;
+	/**
+	 * The merged attributes and the annotation members each one is read from,
+	 * in order of precedence.  For each member the value from the
+	 * {@literal @}ServiceMetadata annotation is tried before the value from
+	 * the {@literal @}CommonMetadata annotation.
+	 */
+	public enum Attribute
+	{
+		NAME("name"),
+		DESCRIPTION("description"),
+		VERSION("version"),
+		TOOL_VERSION("toolVersion"),
+		VENDOR("vendor"),
+		ALLOW("allow"),
+		LICENSE("license"),
+		LICENSE_DESC("licenseDesc"),
+		INPUT_ENCODING("requires_encoding", "encoding"),
+		OUTPUT_ENCODING("produces_encoding", "encoding"),
+		INPUT_LANGUAGE("requires_language", "language"),
+		OUTPUT_LANGUAGE("produces_language", "language"),
+		INPUT_FORMAT("requires_format", "format"),
+		OUTPUT_FORMAT("produces_format", "format"),
+		INPUT_TAGSETS("requires_tagsets", "tagsets"),
+		OUTPUT_TAGSETS("produces_tagsets", "tagsets"),
+		REQUIRES("requires"),
+		PRODUCES("produces");
+
+		private final String[] members;
+
+		Attribute(String... members)
+		{
+			this.members = members;
+		}
+
+		public String[] getMembers()
+		{
+			return members.clone();
+		}
+	}
+
+	private static final Attribute[] ATTRIBUTES = Attribute.values();
+
+	private final Object[] values = new Object[ATTRIBUTES.length];
 
 	public CombinedMetadata(CommonMetadata parent, ServiceMetadata service)
+	{
+		this(AnnotationValues.of(parent), AnnotationValues.of(service));
+	}
+
+	/**
+	 * Resolves every attribute once, the values never change afterwards.
+	 *
+	 * @param common  the values of the {@literal @}CommonMetadata annotation, may be null.
+	 * @param service the values of the {@literal @}ServiceMetadata annotation.
+	 */
+	public CombinedMetadata(AnnotationValues common, AnnotationValues service)
 	{
 		if (service == null)
 		{
 			throw new NullPointerException("ServiceMetadata must not be null.");
 		}
-		if (parent != null)
+		for (Attribute attribute : ATTRIBUTES)
 		{
-			this.common = parent;
+			values[attribute.ordinal()] = resolve(attribute.members, common, service);
 		}
-		this.service = service;
 	}
 
-	public String name()
+	/**
+	 * Returns the first value that is not empty.  If there is none the value
+	 * of the last member in the common metadata is used as is, or null if
+	 * there is no common metadata.
+	 */
+	private static Object resolve(String[] members, AnnotationValues common, AnnotationValues service)
 	{
-		if (hasValue(service.name()))
+		for (String member : members)
 		{
-			return service.name();
+			Object value = service.get(member);
+			if (hasValue(value))
+			{
+				return value;
+			}
+			if (common != null)
+			{
+				value = common.get(member);
+				if (hasValue(value))
+				{
+					return value;
+				}
+			}
 		}
 		if (common == null)
 		{
 			return null;
 		}
-		return common.name();
+		return common.get(members[members.length - 1]);
+	}
+
+	/**
+	 * Returns the merged value, either a String or a String[].
+	 */
+	public Object get(Attribute attribute)
+	{
+		return values[attribute.ordinal()];
+	}
+
+	public String name()
+	{
+		return (String) values[Attribute.NAME.ordinal()];
 	}
 
 	public String description()
 	{
-		if (hasValue(service.description()))
-		{
-			return service.description();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.description();
+		return (String) values[Attribute.DESCRIPTION.ordinal()];
 	}
 
 	public String version()
 	{
-		if (hasValue(service.version()))
-		{
-			return service.version();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.version();
+		return (String) values[Attribute.VERSION.ordinal()];
 	}
 
 	public String toolVersion()
 	{
-		if (hasValue(service.toolVersion())) {
-			return service.toolVersion();
-		}
-		if (common == null) {
-			return null;
-		}
-		return common.toolVersion();
+		return (String) values[Attribute.TOOL_VERSION.ordinal()];
 	}
 
 	public String vendor()
 	{
-		if (hasValue(service.vendor()))
-		{
-			return service.vendor();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.vendor();
+		return (String) values[Attribute.VENDOR.ordinal()];
 	}
 
 	public String allow()
 	{
-		if (hasValue(service.allow()))
-		{
-			return service.allow();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.allow();
+		return (String) values[Attribute.ALLOW.ordinal()];
 	}
 
 	public String license()
 	{
-		if (hasValue(service.license()))
-		{
-			return service.license();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.license();
+		return (String) values[Attribute.LICENSE.ordinal()];
 	}
 
 	public String licenseDesc()
 	{
-		if (hasValue(service.licenseDesc())) {
-			return service.licenseDesc();
-		}
-		if (common == null) {
-			return null;
-		}
-		return common.licenseDesc();
+		return (String) values[Attribute.LICENSE_DESC.ordinal()];
 	}
 
 	public String inputEncoding()
 	{
-		if (hasValue(service.requires_encoding()))
-		{
-			return service.requires_encoding();
-		}
-		if (common != null && hasValue(common.requires_encoding()))
-		{
-			return common.requires_encoding();
-		}
-		if (hasValue(service.encoding()))
-		{
-			return service.encoding();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.encoding();
+		return (String) values[Attribute.INPUT_ENCODING.ordinal()];
 	}
 
 	public String outputEncoding()
 	{
-		if (hasValue(service.produces_encoding()))
-		{
-			return service.produces_encoding();
-		}
-		if (common != null && hasValue(common.produces_encoding()))
-		{
-			return common.produces_encoding();
-		}
-		if (hasValue(service.encoding()))
-		{
-			return service.encoding();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.encoding();
+		return (String) values[Attribute.OUTPUT_ENCODING.ordinal()];
 	}
 
 	public String[] inputLanguage()
 	{
-		if (hasValue(service.requires_language()))
-		{
-			return service.requires_language();
-		}
-		if (common != null && hasValue(common.requires_language()))
-		{
-			return common.requires_language();
-		}
-		if (hasValue(service.language()))
-		{
-			return service.language();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.language();
+		return (String[]) values[Attribute.INPUT_LANGUAGE.ordinal()];
 	}
 
 	public String[] outputLanguage()
 	{
-		if (hasValue(service.produces_language()))
-		{
-			return service.produces_language();
-		}
-		if (common != null && hasValue(common.produces_language()))
-		{
-			return common.produces_language();
-		}
-		if (hasValue(service.language()))
-		{
-			return service.language();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.language();
+		return (String[]) values[Attribute.OUTPUT_LANGUAGE.ordinal()];
 	}
 
-	public String[] outputTagSets()
+	public String[] inputFormat()
 	{
-		if (hasValue(service.produces_tagsets())) {
-			return service.produces_tagsets();
-		}
-		if (common != null && hasValue(common.produces_tagsets())) {
-			return common.produces_tagsets();
-		}
-		if (hasValue(service.tagsets())) {
-			return service.tagsets();
-		}
-		if (common == null) {
-			return null;
-		}
-		return common.tagsets();
+		return (String[]) values[Attribute.INPUT_FORMAT.ordinal()];
 	}
 
-	public String[] inputTagSets()
+	public String[] outputFormat()
 	{
-		if (hasValue(service.requires_tagsets())) {
-			return service.requires_tagsets();
-		}
-		if (common != null && hasValue(common.requires_tagsets())) {
-			return common.requires_tagsets();
-		}
-		if (hasValue(service.tagsets())) {
-			return service.tagsets();
-		}
-		if (common == null) {
-			return null;
-		}
-		return common.tagsets();
+		return (String[]) values[Attribute.OUTPUT_FORMAT.ordinal()];
 	}
 
-	public String[] inputFormat()
+	public String[] inputTagSets()
 	{
-		if (hasValue(service.requires_format()))
-		{
-			return service.requires_format();
-		}
-		if (common != null && hasValue(common.requires_format()))
-		{
-			return common.requires_format();
-		}
-		if (hasValue(service.format()))
-		{
-			return service.format();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.format();
+		return (String[]) values[Attribute.INPUT_TAGSETS.ordinal()];
 	}
 
-	public String[] outputFormat()
+	public String[] outputTagSets()
 	{
-		if (hasValue(service.produces_format()))
-		{
-			return service.produces_format();
-		}
-		if (common != null && hasValue(common.produces_format()))
-		{
-			return common.produces_format();
-		}
-		if (hasValue(service.format()))
-		{
-			return service.format();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.format();
+		return (String[]) values[Attribute.OUTPUT_TAGSETS.ordinal()];
 	}
 
 	public String[] requires()
 	{
-		if (hasValue(service.requires()))
-		{
-			return service.requires();
-		}
-		if (common == null)
-		{
-			return null;
-		}
-		return common.requires();
+		return (String[]) values[Attribute.REQUIRES.ordinal()];
 	}
 
 	public String[] produces()
 	{
-		if (hasValue(service.produces()))
+		return (String[]) values[Attribute.PRODUCES.ordinal()];
+	}
+
+	static boolean hasValue(Object input)
+	{
+		if (input instanceof String)
 		{
-			return service.produces();
+			return ((String) input).length() > 0;
 		}
-		if (common == null)
+		if (input instanceof Object[])
 		{
-			return null;
+			return ((Object[]) input).length > 0;
 		}
-		return common.produces();
-	}
-
-	private boolean hasValue(String input)
-	{
-		return input != null && input.length() > 0;
-	}
-
-	private boolean hasValue(Object[] input)
-	{
-		return input != null && input.length > 0;
+		return input != null;
 	}
 }
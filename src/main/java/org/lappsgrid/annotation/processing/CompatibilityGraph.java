@@ -0,0 +1,247 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.lappsgrid.annotations.runtime.IOFingerprint;
+import org.lappsgrid.annotations.runtime.MetadataRegistry;
+
+import javax.lang.model.element.Element;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records which services in a module can consume the output of which other
+ * services, so a pipeline composer can look the answer up instead of
+ * comparing the metadata of every pair of services at runtime.
+ * <p>
+ * Service <i>A</i> can feed service <i>B</i> when
+ * <ul>
+ *    <li>B does not require a format, or A produces one of the formats B requires;</li>
+ *    <li>A produces every annotation type B requires;</li>
+ *    <li>either does not specify a language, or they have a language in common;</li>
+ *    <li>for every annotation type that both specify a tag set for, the tag sets are the same.</li>
+ * </ul>
+ * A discriminator's short name and its URI are the same value.
+ * The graph is written as JSON to {@link MetadataRegistry#GRAPH_PATH}:
+ * <pre>
+ * {
+ *   "version" : 1,
+ *   "services" : {
+ *     "org.anc.Tokenizer" : [ "org.anc.Tagger", "org.anc.Splitter" ],
+ *     "org.anc.Tagger" : [ ]
+ *   }
+ * }
+ * </pre>
+ * Each service is mapped to the services that can consume its output. Only
+ * services in the same module are compared.
+ *
+ * @author Keith Suderman
+ */
+public final class CompatibilityGraph
+{
+	public static final int VERSION = 1;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Map<String,Node> services = new TreeMap<>();
+
+	CompatibilityGraph() { }
+
+	/**
+	 * Adds (or replaces) a service.
+	 *
+	 * @param json the generated metadata for the service.
+	 */
+	synchronized void add(String className, byte[] json, Element originating) throws IOException
+	{
+		JsonNode root = mapper.readTree(json);
+		services.put(className, new Node(new Spec(root.get("requires")), new Spec(root.get("produces")), originating));
+	}
+
+	synchronized int size()
+	{
+		return services.size();
+	}
+
+	/** The elements the services in the graph were generated from. */
+	synchronized Element[] getOriginatingElements()
+	{
+		List<Element> elements = new ArrayList<>(services.size());
+		for (Node node : services.values())
+		{
+			if (node.originating != null)
+			{
+				elements.add(node.originating);
+			}
+		}
+		return elements.toArray(new Element[elements.size()]);
+	}
+
+	/**
+	 * Computes the edges of the graph, both the keys and the lists are sorted.
+	 */
+	synchronized Map<String,List<String>> getEdges()
+	{
+		Map<String,List<String>> edges = new TreeMap<>();
+		for (Map.Entry<String,Node> producer : services.entrySet())
+		{
+			List<String> consumers = new ArrayList<>();
+			for (Map.Entry<String,Node> consumer : services.entrySet())
+			{
+				if (producer != consumer && canFeed(producer.getValue().produces, consumer.getValue().requires))
+				{
+					consumers.add(consumer.getKey());
+				}
+			}
+			edges.put(producer.getKey(), consumers);
+		}
+		return edges;
+	}
+
+	synchronized void write(OutputStream stream) throws IOException
+	{
+		JsonGenerator generator = new JsonFactory().createGenerator(stream);
+		generator.useDefaultPrettyPrinter();
+		generator.writeStartObject();
+		generator.writeNumberField("version", VERSION);
+		generator.writeObjectFieldStart("services");
+		for (Map.Entry<String,List<String>> entry : getEdges().entrySet())
+		{
+			generator.writeArrayFieldStart(entry.getKey());
+			for (String consumer : entry.getValue())
+			{
+				generator.writeString(consumer);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+		generator.writeEndObject();
+		generator.flush();
+	}
+
+	static boolean canFeed(Spec produces, Spec requires)
+	{
+		if (!requires.formats.isEmpty() && Collections.disjoint(produces.formats, requires.formats))
+		{
+			return false;
+		}
+		if (!produces.annotations.containsAll(requires.annotations))
+		{
+			return false;
+		}
+		if (!produces.languages.isEmpty() && !requires.languages.isEmpty()
+				&& Collections.disjoint(produces.languages, requires.languages))
+		{
+			return false;
+		}
+		for (Map.Entry<Object,Object> tagSet : requires.tagSets.entrySet())
+		{
+			Object produced = produces.tagSets.get(tagSet.getKey());
+			if (produced != null && !produced.equals(tagSet.getValue()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class Node
+	{
+		final Spec requires;
+		final Spec produces;
+		final Element originating;
+
+		Node(Spec requires, Spec produces, Element originating)
+		{
+			this.requires = requires;
+			this.produces = produces;
+			this.originating = originating;
+		}
+	}
+
+	/**
+	 * The parts of an IOSpecification that are compared.  Formats, annotation
+	 * types and tag sets are compared by discriminator id, the same as in the
+	 * {@link IOFingerprint}, so a short name matches its URI.  Values that
+	 * are not discriminators are compared as strings.
+	 */
+	static class Spec
+	{
+		final Set<Object> formats;
+		final Set<Object> annotations;
+		final Set<Object> languages = new HashSet<>();
+		final Map<Object,Object> tagSets = new HashMap<>();
+
+		Spec(JsonNode node)
+		{
+			formats = discriminators(node, "format");
+			annotations = discriminators(node, "annotations");
+			JsonNode array = node == null ? null : node.get("language");
+			if (array != null)
+			{
+				for (JsonNode item : array)
+				{
+					languages.add(item.asText());
+				}
+			}
+			JsonNode tags = node == null ? null : node.get("tagSets");
+			if (tags != null)
+			{
+				Iterator<Map.Entry<String,JsonNode>> fields = tags.fields();
+				while (fields.hasNext())
+				{
+					Map.Entry<String,JsonNode> field = fields.next();
+					tagSets.put(key(field.getKey()), key(field.getValue().asText()));
+				}
+			}
+		}
+
+		private static Set<Object> discriminators(JsonNode node, String name)
+		{
+			Set<Object> set = new HashSet<>();
+			JsonNode array = node == null ? null : node.get(name);
+			if (array != null)
+			{
+				for (JsonNode item : array)
+				{
+					set.add(key(item.asText()));
+				}
+			}
+			return set;
+		}
+
+		/** The discriminator id, or the value itself if it is not a discriminator. */
+		private static Object key(String value)
+		{
+			Integer id = IOFingerprint.getDiscriminatorId(value);
+			return id == null ? value : id;
+		}
+	}
+}
@@ -20,7 +20,6 @@ import org.lappsgrid.discriminator.Discriminator;
 import org.lappsgrid.discriminator.DiscriminatorRegistry;
 import org.lappsgrid.annotations.DataSourceMetadata;
 import org.lappsgrid.annotations.ServiceMetadata;
-import org.xml.sax.InputSource;
 
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
@@ -31,14 +30,8 @@ import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.io.*;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -49,21 +42,17 @@ import java.util.Set;
 public class DataSourceMetadataProcessor //extends AbstractProcessor
 {
 //   private Properties defaults = new Properties();
+	private VersionResolver versions = new VersionResolver(null);
+	private final Log log;
 
 	public DataSourceMetadataProcessor()
 	{
-//		System.out.println("Creating DataSourceMetadataProcessor");
+		this(new Log(null, Log.Level.WARN));
 	}
 
-	private void log(String message)
+	DataSourceMetadataProcessor(Log log)
 	{
-//		System.out.println(message);
-//		processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message);
-	}
-
-	private void debug(String message)
-	{
-      System.out.println(message);
+		this.log = log;
 	}
 
 	private String toString(String[] list)
@@ -90,14 +79,14 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 
 	public boolean processDataSourceMetadata(File root, Set<? extends TypeElement> annotations,
 								  RoundEnvironment roundEnv) {
-		log("Running the DataSourceMetadataProcessor");
+		log.debug(() -> "Running the DataSourceMetadataProcessor");
 		for (Element elem : roundEnv.getElementsAnnotatedWith(ServiceMetadata.class))
 		{
 			if (elem.getKind() != ElementKind.CLASS || elem.getModifiers().contains(Modifier.ABSTRACT)) {
 				// We are only interested in concrete classes. The Metadata annotation
 				// can only be applied to Types (classes), but we only generate the
 				// metadata file for non-abstract classes.
-				debug("Skipping " + elem.getSimpleName());
+				log.debug(() -> "Skipping " + elem.getSimpleName());
 				continue;
 			}
 			TypeElement type = (TypeElement) elem;
@@ -105,15 +94,14 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 			TypeMirror parent = type.getSuperclass();
 			DataSourceMetadata metadata = parent.getClass().getAnnotation(DataSourceMetadata.class);
 			File file = new File(root, className + ".json");
-			debug("Generating ServiceMetadata for " + className);
+			log.debug(() -> "Generating ServiceMetadata for " + className);
 			try
 			{
 				writeDataSourceMetadata(file, className, metadata);
 			}
 			catch (IOException e)
 			{
-				log(e.getMessage());
-				e.printStackTrace();
+				log.warn(() -> "Unable to write " + file.getPath() + ": " + e.getMessage());
 			}
 		}
 		return true;
@@ -147,71 +135,6 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 		return key;
 	}
 
-	/**
-	 * Attempts to find the version number.  If a version number
-	 * was supplied in the annotation that value is used. Otherwise the
-	 * processor looks for a file named VERSION in the project root directory.
-	 * If a VERSION file can not be found, or can not be parsed, the processor
-	 * attempts to parse the version from the pom file.
-	 * <p>
-	 * Returns <code>null</code> if the version number can not be
-	 * determined.
-	 *
-	 * @param version The version specified in the annotation or an empty
-	 *                string if the version was not specified in the
-	 *                annotation.
-	 * @return The version number if it can be determined, null otherwise.
-	 */
-	private String getVersion(String version)
-	{
-		if (version.length() > 0)
-		{
-			debug("Using version specified in the annotation: " + version);
-			return version;
-		}
-		File file = new File("VERSION");
-		if (file.exists())
-		{
-			debug("Attempting to parse VERSION file");
-			try
-			{
-				BufferedReader reader = new BufferedReader(new FileReader(file));
-				String line = reader.readLine();
-				reader.close();
-				debug("Using version from VERSION file: " + line);
-				return line;
-			}
-			catch (IOException ignore)
-			{
-				// Fall through and try the pom.xml file.
-			}
-		}
-		debug("Attempting to get version from POM.");
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		xpath.setNamespaceContext(new MavenNamespaceContext());
-		String expression = "/maven:project/maven:version/text()";
-		try
-		{
-			XPathExpression xpr = xpath.compile(expression);
-			InputSource source = new InputSource(new FileReader("pom.xml"));
-			String s = xpr.evaluate(source);
-			debug("Version is " + s);
-			return s;
-		}
-		catch (IOException e)
-		{
-			log("IOException: " + e.getMessage());
-			e.printStackTrace();
-			return null;
-		}
-		catch (XPathExpressionException ignored)
-		{
-			log("Error parsing version: " + ignored.getMessage());
-			ignored.printStackTrace();
-			return null;
-		}
-	}
-
 //	private <T> void addList(List<T> list, IOSpecification spec)
 //	{
 //		for (T item : list)
@@ -241,7 +164,7 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 		metadata.setLicense(getValue(annotation.license()));
 		metadata.setAllow(getValue(annotation.allow()));
 //      log("Attempting to get version");
-		metadata.setVersion(getVersion(annotation.version()));
+		metadata.setVersion(versions.resolve(annotation.version()));
 		metadata.setEncoding(annotation.encoding());
 		metadata.setLanguage(Arrays.asList(annotation.language()));
 		metadata.setFormat(Arrays.asList(annotation.format()));
@@ -252,7 +175,7 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 			FileOutputStream stream = new FileOutputStream(file);
 			writer = new OutputStreamWriter(stream, "UTF-8");
 			writer.write(Serializer.toJson(metadata)); // metadata.toPrettyJson());
-			log("Wrote " + file.getPath());
+			log.debug(() -> "Wrote " + file.getPath());
 		}
 		finally
 		{
@@ -262,32 +185,4 @@ public class DataSourceMetadataProcessor //extends AbstractProcessor
 			}
 		}
 	}
-
-	class MavenNamespaceContext implements NamespaceContext
-	{
-
-		@Override
-		public String getNamespaceURI(String prefix)
-		{
-			debug("Getting namespace for prefix " + prefix);
-			if ("maven".equals(prefix))
-			{
-				debug("Return MAVEN URL.");
-				return "http://maven.apache.org/POM/4.0.0";
-			}
-			return null;
-		}
-
-		@Override
-		public String getPrefix(String namespaceURI)
-		{
-			return null;
-		}
-
-		@Override
-		public Iterator getPrefixes(String namespaceURI)
-		{
-			return null;
-		}
-	}
 }
@@ -0,0 +1,111 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the discriminator short names used in annotations to URIs.
+ * <p>
+ * Each processor owns one resolver that memoizes the values it has already
+ * resolved on top of the shared {@link DiscriminatorTable} and counts how the
+ * lookups were answered.
+ *
+ * @author Keith Suderman
+ */
+class DiscriminatorResolver
+{
+	private final DiscriminatorTable table;
+	private final ConcurrentMap<String,String> memo = new ConcurrentHashMap<>();
+	private final LongAdder memoHits = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public DiscriminatorResolver()
+	{
+		this(DiscriminatorTable.getInstance());
+	}
+
+	public DiscriminatorResolver(DiscriminatorTable table)
+	{
+		this.table = table;
+	}
+
+	/**
+	 * Returns the URI for a discriminator short name. URIs, i.e. values that
+	 * start with <code>http</code>, and unknown names are returned unchanged.
+	 * Returns null for null or empty values.
+	 */
+	public String getValue(String key)
+	{
+		if (key == null || key.length() == 0)
+		{
+			return null;
+		}
+		if (key.startsWith("http"))
+		{
+			return key;
+		}
+		return getUri(key);
+	}
+
+	/**
+	 * Returns the URI for a discriminator short name or URI. Unknown values
+	 * are returned unchanged.
+	 */
+	public String getUri(String name)
+	{
+		String uri = memo.get(name);
+		if (uri != null)
+		{
+			memoHits.increment();
+			return uri;
+		}
+		uri = table.get(name);
+		if (uri == null)
+		{
+			misses.increment();
+			uri = name;
+		}
+		else
+		{
+			hits.increment();
+		}
+		memo.put(name, uri);
+		return uri;
+	}
+
+	/** Number of lookups answered from this resolver's memo. */
+	public long getMemoHits()
+	{
+		return memoHits.sum();
+	}
+
+	/** Number of lookups that found a discriminator in the table. */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/** Number of lookups for values that are not known discriminators. */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+}
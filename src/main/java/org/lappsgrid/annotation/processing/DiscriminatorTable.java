@@ -0,0 +1,191 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.discriminator.Discriminator;
+import org.lappsgrid.discriminator.DiscriminatorRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable lookup table from discriminator short names and URIs to the
+ * discriminator URI.
+ * <p>
+ * The table is built once from the {@link DiscriminatorRegistry} and uses
+ * open addressing with linear probing over parallel arrays, so a lookup does
+ * not allocate and only relies on the cached {@link String#hashCode()}.
+ *
+ * @author Keith Suderman
+ */
+final class DiscriminatorTable
+{
+	private final String[] keys;
+	private final String[] values;
+	private final int mask;
+	private final int size;
+	private String fingerprint;
+
+	private DiscriminatorTable(String[] names, String[] uris)
+	{
+		int capacity = Integer.highestOneBit(Math.max(2, (names.length + uris.length) * 2) - 1) << 1;
+		keys = new String[capacity];
+		values = new String[capacity];
+		mask = capacity - 1;
+		int count = 0;
+		for (int i = 0; i < names.length; ++i)
+		{
+			count += put(names[i], uris[i]);
+		}
+		for (String uri : uris)
+		{
+			count += put(uri, uri);
+		}
+		size = count;
+	}
+
+	/**
+	 * Returns the table for the discriminators currently in the registry.
+	 */
+	static DiscriminatorTable getInstance()
+	{
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Returns the URI for the given short name or URI, or null if the value is
+	 * not a known discriminator.
+	 */
+	String get(String key)
+	{
+		int i = index(key);
+		String candidate = keys[i];
+		while (candidate != null)
+		{
+			if (candidate.equals(key))
+			{
+				return values[i];
+			}
+			i = (i + 1) & mask;
+			candidate = keys[i];
+		}
+		return null;
+	}
+
+	/** The number of names and URIs in the table. */
+	int size()
+	{
+		return size;
+	}
+
+	/** The length of the key and value arrays. */
+	int capacity()
+	{
+		return keys.length;
+	}
+
+	private int put(String key, String value)
+	{
+		if (key == null || value == null)
+		{
+			return 0;
+		}
+		int i = index(key);
+		while (keys[i] != null)
+		{
+			if (keys[i].equals(key))
+			{
+				// First registration wins, same as the registry's name index.
+				return 0;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		return 1;
+	}
+
+	/**
+	 * A SHA-256 hash of all the entries in the table, as hex.  Changes when
+	 * a new version of the registry adds or changes a discriminator.
+	 */
+	synchronized String getFingerprint()
+	{
+		if (fingerprint == null)
+		{
+			Map<String,String> sorted = new TreeMap<>();
+			for (int i = 0; i < keys.length; ++i)
+			{
+				if (keys[i] != null)
+				{
+					sorted.put(keys[i], values[i]);
+				}
+			}
+			try
+			{
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				for (Map.Entry<String,String> entry : sorted.entrySet())
+				{
+					digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+					digest.update((byte) '=');
+					digest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+					digest.update((byte) '\n');
+				}
+				fingerprint = MetadataCache.toHex(digest.digest());
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				// Every Java platform has to support SHA-256.
+				throw new IllegalStateException(e);
+			}
+		}
+		return fingerprint;
+	}
+
+	private int index(String key)
+	{
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static DiscriminatorTable build()
+	{
+		String[] names = DiscriminatorRegistry.names();
+		String[] uris = new String[names.length];
+		for (int i = 0; i < names.length; ++i)
+		{
+			Discriminator d = DiscriminatorRegistry.getByName(names[i]);
+			uris[i] = d == null ? null : d.getUri();
+		}
+		DiscriminatorTable table = new DiscriminatorTable(names, uris);
+		for (Discriminator d : DiscriminatorRegistry.discriminators())
+		{
+			// Discriminators are normally reachable by name, but make sure
+			// every URI in the registry resolves to itself.
+			table.put(d.getUri(), d.getUri());
+		}
+		return table;
+	}
+
+	private static class Holder
+	{
+		static final DiscriminatorTable INSTANCE = build();
+	}
+}
@@ -0,0 +1,136 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.lang.model.element.Element;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes generated files directly to the file system below a root directory.
+ * This is the original behaviour of the processor, i.e. the files end up in
+ * <code>src/main/resources</code> and are packaged as regular resources.
+ * <p>
+ * Files written this way are invisible to the compiler's file manager so
+ * build tools can not track them for incremental compilation.
+ *
+ * @author Keith Suderman
+ */
+class FileMetadataOutput implements MetadataOutput
+{
+	private final File root;
+
+	/** Directories that are known to exist. */
+	private final Set<File> directories = ConcurrentHashMap.newKeySet();
+
+	public FileMetadataOutput(File root)
+	{
+		this.root = root;
+	}
+
+	/**
+	 * Writes the file unless it already exists with the same content, so
+	 * unchanged files keep their modification times and are not seen as
+	 * changed by resource copying, packaging or container layer caches.
+	 */
+	@Override
+	public boolean write(String path, byte[] content, Element... originating) throws IOException
+	{
+		File file = new File(root, path);
+		if (isUnchanged(file, content))
+		{
+			return false;
+		}
+		createParent(file);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(content);
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the parent directory of the file unless it is already known to
+	 * exist, so the file system is only asked once per directory.
+	 */
+	private void createParent(File file) throws IOException
+	{
+		File parent = file.getParentFile();
+		if (directories.contains(parent))
+		{
+			return;
+		}
+		// Another thread may create the directory between the two checks.
+		if (!parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create directory " + parent.getPath());
+		}
+		directories.add(parent);
+	}
+
+	private boolean isUnchanged(File file, byte[] content)
+	{
+		if (!file.isFile() || file.length() != content.length)
+		{
+			return false;
+		}
+		try
+		{
+			return Arrays.equals(content, Files.readAllBytes(file.toPath()));
+		}
+		catch (IOException e)
+		{
+			// Play it safe and write the file.
+			return false;
+		}
+	}
+
+	@Override
+	public byte[] read(String path) throws IOException
+	{
+		File file = new File(root, path);
+		if (!file.isFile())
+		{
+			return null;
+		}
+		return Files.readAllBytes(file.toPath());
+	}
+
+	@Override
+	public String describe(String path)
+	{
+		return new File(root, path).getAbsolutePath();
+	}
+
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,106 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Writes generated files through the compiler's {@link Filer}.
+ * <p>
+ * The files are registered with the compiler (and any build tool wrapping it)
+ * together with the element they were generated from, which is what allows
+ * Gradle and javac to only reprocess the services that actually changed.
+ *
+ * @author Keith Suderman
+ */
+class FilerMetadataOutput implements MetadataOutput
+{
+	private final Filer filer;
+	private final JavaFileManager.Location location;
+
+	public FilerMetadataOutput(Filer filer, JavaFileManager.Location location)
+	{
+		this.filer = filer;
+		this.location = location;
+	}
+
+	/**
+	 * Always writes the file. Files that are not recreated through the Filer
+	 * are considered deleted by incremental builds.
+	 */
+	@Override
+	public boolean write(String path, byte[] content, Element... originating) throws IOException
+	{
+		FileObject file = filer.createResource(location, "", path, originating);
+		OutputStream stream = file.openOutputStream();
+		try
+		{
+			stream.write(content);
+		}
+		finally
+		{
+			stream.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the file from the output location, i.e. the file written by the
+	 * previous build.  Must be called before the file is created again.
+	 */
+	@Override
+	public byte[] read(String path) throws IOException
+	{
+		try (InputStream stream = filer.getResource(location, "", path).openInputStream())
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n = stream.read(buffer);
+			while (n > 0)
+			{
+				bytes.write(buffer, 0, n);
+				n = stream.read(buffer);
+			}
+			return bytes.toByteArray();
+		}
+		catch (FileNotFoundException | NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public String describe(String path)
+	{
+		return location.getName() + ":" + path;
+	}
+
+	@Override
+	public boolean isThreadSafe()
+	{
+		return false;
+	}
+}
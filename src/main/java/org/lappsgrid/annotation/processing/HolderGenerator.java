@@ -0,0 +1,224 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.metadata.IOSpecification;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the source code for a <code>&lt;Service&gt;MetadataHolder</code>
+ * class.
+ * <p>
+ * The holder contains the service's JSON metadata as a compile time constant
+ * and builds the {@link ServiceMetadata} object with plain setter calls the
+ * first time it is requested, so services can return their metadata without
+ * loading or parsing a resource.
+ *
+ * @author Keith Suderman
+ */
+class HolderGenerator
+{
+	public static final String SUFFIX = "MetadataHolder";
+
+	private static final String METADATA = "org.lappsgrid.metadata.ServiceMetadata";
+
+	private HolderGenerator() { }
+
+	/**
+	 * The fully qualified name of the holder class for the given type. Nested
+	 * types use the names of their enclosing types, e.g.
+	 * <code>Outer_InnerMetadataHolder</code>.
+	 */
+	public static String getHolderName(TypeElement type)
+	{
+		String packageName = getPackageName(type);
+		String simpleName = getNestedName(type) + SUFFIX;
+		if (packageName.length() == 0)
+		{
+			return simpleName;
+		}
+		return packageName + "." + simpleName;
+	}
+
+	public static String generate(TypeElement type, ServiceMetadata metadata, String json)
+	{
+		String packageName = getPackageName(type);
+		String simpleName = getNestedName(type) + SUFFIX;
+		StringBuilder out = new StringBuilder();
+		if (packageName.length() > 0)
+		{
+			out.append("package ").append(packageName).append(";\n\n");
+		}
+		out.append("/**\n");
+		out.append(" * Metadata for {@link ").append(type.getQualifiedName()).append("}.\n");
+		out.append(" * <p>\n");
+		out.append(" * Generated by the LAPPS Grid annotation processor. Do not edit.\n");
+		out.append(" */\n");
+		out.append("public final class ").append(simpleName).append("\n{\n");
+		out.append("\t/** The JSON metadata for the service. */\n");
+		out.append("\tpublic static final String JSON = ").append(literal(json)).append(";\n\n");
+		out.append("\tprivate ").append(simpleName).append("() { }\n\n");
+		out.append("\t/**\n");
+		out.append("\t * Returns the shared metadata instance. Callers must not modify it.\n");
+		out.append("\t */\n");
+		out.append("\tpublic static ").append(METADATA).append(" getMetadata()\n\t{\n");
+		out.append("\t\treturn Lazy.INSTANCE;\n\t}\n\n");
+		out.append("\tprivate static final class Lazy\n\t{\n");
+		out.append("\t\tstatic final ").append(METADATA).append(" INSTANCE = create();\n\t}\n\n");
+		out.append("\tprivate static ").append(METADATA).append(" create()\n\t{\n");
+		out.append("\t\t").append(METADATA).append(" metadata = new ").append(METADATA).append("();\n");
+		set(out, "Name", metadata.getName());
+		set(out, "Description", metadata.getDescription());
+		set(out, "Vendor", metadata.getVendor());
+		set(out, "License", metadata.getLicense());
+		set(out, "LicenseDesc", metadata.getLicenseDesc());
+		set(out, "Allow", metadata.getAllow());
+		set(out, "Version", metadata.getVersion());
+		set(out, "ToolVersion", metadata.getToolVersion());
+		populate(out, "getRequires", metadata.getRequires());
+		populate(out, "getProduces", metadata.getProduces());
+		out.append("\t\treturn metadata;\n\t}\n");
+		out.append("}\n");
+		return out.toString();
+	}
+
+	private static void set(StringBuilder out, String property, String value)
+	{
+		if (value != null)
+		{
+			out.append("\t\tmetadata.set").append(property).append("(").append(literal(value)).append(");\n");
+		}
+	}
+
+	private static void populate(StringBuilder out, String getter, IOSpecification spec)
+	{
+		if (spec == null)
+		{
+			return;
+		}
+		String prefix = "\t\tmetadata." + getter + "()";
+		if (spec.getEncoding() != null)
+		{
+			out.append(prefix).append(".setEncoding(").append(literal(spec.getEncoding())).append(");\n");
+		}
+		add(out, prefix + ".getFormat()", spec.getFormat());
+		add(out, prefix + ".getLanguage()", spec.getLanguage());
+		add(out, prefix + ".getAnnotations()", spec.getAnnotations());
+		Map<String,String> tagsets = spec.getTagSets();
+		if (tagsets != null)
+		{
+			for (Map.Entry<String,String> entry : tagsets.entrySet())
+			{
+				out.append(prefix).append(".getTagSets().put(")
+						.append(literal(entry.getKey())).append(", ")
+						.append(literal(entry.getValue())).append(");\n");
+			}
+		}
+	}
+
+	private static void add(StringBuilder out, String list, List<String> values)
+	{
+		if (values == null)
+		{
+			return;
+		}
+		for (String value : values)
+		{
+			out.append(list).append(".add(").append(literal(value)).append(");\n");
+		}
+	}
+
+	/**
+	 * Returns the value as a Java string literal. Non-ASCII characters are
+	 * escaped so the generated source does not depend on the source encoding.
+	 */
+	static String literal(String value)
+	{
+		if (value == null)
+		{
+			return "null";
+		}
+		StringBuilder buffer = new StringBuilder(value.length() + 16);
+		buffer.append('"');
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char c = value.charAt(i);
+			switch (c)
+			{
+				case '"':
+					buffer.append("\\\"");
+					break;
+				case '\\':
+					buffer.append("\\\\");
+					break;
+				case '\n':
+					buffer.append("\\n");
+					break;
+				case '\r':
+					buffer.append("\\r");
+					break;
+				case '\t':
+					buffer.append("\\t");
+					break;
+				default:
+					if (c < 0x20 || c > 0x7e)
+					{
+						buffer.append(String.format("\\u%04x", (int) c));
+					}
+					else
+					{
+						buffer.append(c);
+					}
+			}
+		}
+		buffer.append('"');
+		return buffer.toString();
+	}
+
+	private static String getPackageName(TypeElement type)
+	{
+		Element e = type;
+		while (e != null && e.getKind() != ElementKind.PACKAGE)
+		{
+			e = e.getEnclosingElement();
+		}
+		if (e == null)
+		{
+			return "";
+		}
+		return ((PackageElement) e).getQualifiedName().toString();
+	}
+
+	private static String getNestedName(TypeElement type)
+	{
+		String name = type.getSimpleName().toString();
+		Element e = type.getEnclosingElement();
+		while (e instanceof TypeElement)
+		{
+			name = e.getSimpleName() + "_" + name;
+			e = e.getEnclosingElement();
+		}
+		return name;
+	}
+}
@@ -0,0 +1,151 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@link ProcessorEvents} recorded by Java Flight Recorder.  Only loaded
+ * through reflection when <code>jdk.jfr</code> is available.
+ *
+ * @author Keith Suderman
+ */
+class JfrProcessorEvents extends ProcessorEvents
+{
+	@Override
+	Object beginElement()
+	{
+		return begin(new ElementEvent());
+	}
+
+	@Override
+	void endElement(Object token, String className, String kind, int size, int discriminatorLookups)
+	{
+		if (token != null)
+		{
+			ElementEvent event = (ElementEvent) token;
+			event.className = className;
+			event.kind = kind;
+			event.size = size;
+			event.discriminatorLookups = discriminatorLookups;
+			event.commit();
+		}
+	}
+
+	@Override
+	Object beginWrite()
+	{
+		return begin(new WriteEvent());
+	}
+
+	@Override
+	void endWrite(Object token, String path, int size, boolean written)
+	{
+		if (token != null)
+		{
+			WriteEvent event = (WriteEvent) token;
+			event.path = path;
+			event.size = size;
+			event.written = written;
+			event.commit();
+		}
+	}
+
+	@Override
+	Object beginVersion()
+	{
+		return begin(new VersionEvent());
+	}
+
+	@Override
+	void endVersion(Object token, String version, String source)
+	{
+		if (token != null)
+		{
+			VersionEvent event = (VersionEvent) token;
+			event.version = version;
+			event.source = source;
+			event.commit();
+		}
+	}
+
+	private static Event begin(Event event)
+	{
+		if (!event.isEnabled())
+		{
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Name("org.lappsgrid.annotation.Element")
+	@Label("Metadata Generation")
+	@Category({ "LAPPS", "Annotation Processing" })
+	@Description("Creating the metadata for one annotated class.")
+	static class ElementEvent extends Event
+	{
+		@Label("Class")
+		String className;
+
+		@Label("Annotation")
+		String kind;
+
+		@Label("JSON Size")
+		@DataAmount
+		int size;
+
+		@Label("Discriminator Lookups")
+		int discriminatorLookups;
+	}
+
+	@Name("org.lappsgrid.annotation.Write")
+	@Label("Metadata Write")
+	@Category({ "LAPPS", "Annotation Processing" })
+	@Description("Writing one generated file.")
+	static class WriteEvent extends Event
+	{
+		@Label("Path")
+		String path;
+
+		@Label("Size")
+		@DataAmount
+		int size;
+
+		@Label("Written")
+		@Description("False if the file already had the same content.")
+		boolean written;
+	}
+
+	@Name("org.lappsgrid.annotation.Version")
+	@Label("Version Lookup")
+	@Category({ "LAPPS", "Annotation Processing" })
+	@Description("Finding the project version from the options, VERSION file or pom.xml.")
+	static class VersionEvent extends Event
+	{
+		@Label("Version")
+		String version;
+
+		@Label("Source")
+		String source;
+	}
+}
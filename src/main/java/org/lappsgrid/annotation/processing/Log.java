@@ -0,0 +1,109 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Log messages from the processors, reported through the compiler's
+ * {@link Messager} so they appear with the rest of the compiler output.
+ * <p>
+ * Messages are passed as suppliers and are only created if the level is
+ * enabled. The level is set with <code>-Alappsgrid.log</code>. Compile
+ * errors are not logged, they are always reported to the Messager directly.
+ * Must only be used on the compiler's thread.
+ *
+ * @author Keith Suderman
+ */
+class Log
+{
+	enum Level
+	{
+		OFF, WARN, INFO, DEBUG
+	}
+
+	private final Messager messager;
+	private final Level level;
+
+	/**
+	 * @param messager where to send the messages, or null to print them to
+	 *                 <code>System.err</code>.
+	 */
+	public Log(Messager messager, Level level)
+	{
+		this.messager = messager;
+		this.level = level;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the name is not a level.
+	 */
+	public static Level parse(String name)
+	{
+		return Level.valueOf(name.toUpperCase(Locale.ROOT));
+	}
+
+	public boolean isEnabled(Level level)
+	{
+		return level.compareTo(this.level) <= 0;
+	}
+
+	public void warn(Supplier<String> message)
+	{
+		print(Level.WARN, message, null);
+	}
+
+	public void warn(Supplier<String> message, Element element)
+	{
+		print(Level.WARN, message, element);
+	}
+
+	public void info(Supplier<String> message)
+	{
+		print(Level.INFO, message, null);
+	}
+
+	public void debug(Supplier<String> message)
+	{
+		print(Level.DEBUG, message, null);
+	}
+
+	private void print(Level level, Supplier<String> message, Element element)
+	{
+		if (!isEnabled(level))
+		{
+			return;
+		}
+		Diagnostic.Kind kind = level == Level.WARN ? Diagnostic.Kind.WARNING : Diagnostic.Kind.NOTE;
+		if (messager == null)
+		{
+			System.err.println(kind + ": " + message.get());
+		}
+		else if (element == null)
+		{
+			messager.printMessage(kind, message.get());
+		}
+		else
+		{
+			messager.printMessage(kind, message.get(), element);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotations.retained.CommonMetadata;
+import org.lappsgrid.annotations.retained.DataSourceMetadata;
+import org.lappsgrid.annotations.retained.ServiceMetadata;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the metadata for a class from its runtime retained annotations
+ * (see {@link org.lappsgrid.annotations.retained}), with the same merge
+ * rules and the same {@link MetadataGenerator} as the annotation processor.
+ * <p>
+ * As in the {@link AnnotationExtractor} the {@literal @}CommonMetadata of a
+ * class is merged from its super classes, its package and the parent
+ * packages.  The merged values of each class are cached in a
+ * {@link ClassValue}.  Since reflection does not say which members were set
+ * explicitly a member that is set to its default value does not override
+ * the value of a super class or package.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Keith Suderman
+ */
+public final class MetadataBuilder
+{
+	private static final Map<String,Object> NONE = Collections.emptyMap();
+
+	/** The explicitly set values merged over each class and its super classes. */
+	private static final ClassValue<Map<String,Object>> chains = new ClassValue<Map<String,Object>>() {
+		@Override
+		protected Map<String,Object> computeValue(Class<?> type)
+		{
+			Map<String,Object> parent = type.getSuperclass() == null ? null : getChain(type.getSuperclass());
+			CommonMetadata annotation = type.getDeclaredAnnotation(CommonMetadata.class);
+			Map<String,Object> own = annotation == null ? null : AnnotationValues.getValues(annotation, true);
+			Map<String,Object> chain = AnnotationValues.merge(own, parent);
+			return chain == null ? NONE : chain;
+		}
+	};
+
+	private static final Map<String,Object> defaults = getDefaults();
+
+	private final MetadataGenerator generator;
+
+	/**
+	 * @param version the version used when the annotations do not specify
+	 *                one, or null for {@link VersionResolver#UNKNOWN}.
+	 */
+	public MetadataBuilder(String version)
+	{
+		VersionResolver versions = new VersionResolver(version == null ? VersionResolver.UNKNOWN : version);
+		generator = new MetadataGenerator(versions, new DiscriminatorResolver(), new ProcessorStats(), true);
+	}
+
+	/**
+	 * Returns the metadata for a service, or null if the class does not have
+	 * a {@literal @}ServiceMetadata annotation or is abstract.
+	 */
+	public org.lappsgrid.metadata.ServiceMetadata createServiceMetadata(Class<?> type) throws IOException
+	{
+		AnnotationValues service = AnnotationValues.of(type.getAnnotation(ServiceMetadata.class));
+		if (service == null || !isConcrete(type))
+		{
+			return null;
+		}
+		CombinedMetadata combined = new CombinedMetadata(extractCommon(type), service);
+		return generator.createServiceMetadata(type.getName(), combined);
+	}
+
+	/**
+	 * Returns the metadata for a data source, or null if the class does not
+	 * have a {@literal @}DataSourceMetadata annotation or is abstract.
+	 */
+	public org.lappsgrid.metadata.DataSourceMetadata createDataSourceMetadata(Class<?> type) throws IOException
+	{
+		AnnotationValues values = AnnotationValues.of(type.getAnnotation(DataSourceMetadata.class));
+		if (values == null || !isConcrete(type))
+		{
+			return null;
+		}
+		return generator.createDataSourceMetadata(type.getName(), values);
+	}
+
+	/**
+	 * Serializes the metadata the same way the processor writes it.
+	 */
+	public byte[] toJson(Object metadata) throws IOException
+	{
+		return generator.toJson(metadata);
+	}
+
+	/**
+	 * Merges the {@literal @}CommonMetadata annotations of the class, its
+	 * super classes, its package and the parent packages.
+	 *
+	 * @return the merged values or null if there is no {@literal @}CommonMetadata
+	 * annotation on any of the classes or packages.
+	 */
+	public static AnnotationValues extractCommon(Class<?> type)
+	{
+		Map<String,Object> merged = AnnotationValues.merge(getChain(type), getPackage(type));
+		if (merged == null)
+		{
+			return null;
+		}
+		Map<String,Object> values = new HashMap<>(defaults);
+		values.putAll(merged);
+		return new AnnotationValues(CommonMetadata.class.getName(), values);
+	}
+
+	private static Map<String,Object> getChain(Class<?> type)
+	{
+		Map<String,Object> chain = chains.get(type);
+		return chain == NONE ? null : chain;
+	}
+
+	/**
+	 * The merged values of the package of the class and its parent packages.
+	 * A package is only annotated if its <code>package-info</code> class can
+	 * be loaded by the class loader of the type.
+	 */
+	private static Map<String,Object> getPackage(Class<?> type)
+	{
+		String name = type.getName();
+		ClassLoader loader = type.getClassLoader();
+		Map<String,Object> merged = null;
+		int dot = name.lastIndexOf('.');
+		while (dot > 0)
+		{
+			name = name.substring(0, dot);
+			merged = AnnotationValues.merge(merged, getDeclaredCommon(name, loader));
+			dot = name.lastIndexOf('.');
+		}
+		return merged;
+	}
+
+	private static Map<String,Object> getDeclaredCommon(String pkg, ClassLoader loader)
+	{
+		try
+		{
+			Class<?> info = Class.forName(pkg + ".package-info", false, loader);
+			CommonMetadata annotation = info.getAnnotation(CommonMetadata.class);
+			return annotation == null ? null : AnnotationValues.getValues(annotation, true);
+		}
+		catch (ClassNotFoundException | LinkageError e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean isConcrete(Class<?> type)
+	{
+		return !type.isInterface() && !type.isAnnotation() && !Modifier.isAbstract(type.getModifiers());
+	}
+
+	private static Map<String,Object> getDefaults()
+	{
+		Map<String,Object> values = new HashMap<>();
+		for (Method method : CommonMetadata.class.getDeclaredMethods())
+		{
+			if (method.getDefaultValue() != null)
+			{
+				values.put(method.getName(), method.getDefaultValue());
+			}
+		}
+		return values;
+	}
+}
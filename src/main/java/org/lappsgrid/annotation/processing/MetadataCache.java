@@ -0,0 +1,248 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A cache of generated JSON that survives between builds, enabled with
+ * <code>-Alappsgrid.cacheDir</code>.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the annotation values, the class
+ * name, the project version, the discriminators in the registry, the output
+ * settings and the versions of this processor, the metadata beans and Jackson,
+ * so a hit can be used without merging, resolving or
+ * serializing anything.  The cache is only an optimization: entries that
+ * can not be read or written are silently regenerated. Several builds may
+ * share the same directory since entries are written to a temporary file
+ * first and then moved into place.
+ *
+ * @author Keith Suderman
+ */
+class MetadataCache
+{
+	/**
+	 * Part of every key.  Must be incremented whenever the JSON generated for
+	 * the same annotation values changes.
+	 */
+	static final int FORMAT = 1;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File directory;
+	private final String salt;
+
+	/**
+	 * @param directory the cache directory, created when needed.
+	 * @param salt      everything other than the annotation values that
+	 *                  changes the output, e.g. the project version.
+	 */
+	public MetadataCache(File directory, String salt)
+	{
+		this.directory = directory;
+		this.salt = FORMAT + "|" + getCodeVersion(MetadataCache.class) + "|"
+				+ getCodeVersion(org.lappsgrid.metadata.ServiceMetadata.class) + "|"
+				+ com.fasterxml.jackson.databind.cfg.PackageVersion.VERSION + "|" + salt;
+	}
+
+	/**
+	 * Identifies the build of the code a class was loaded from.  Released jars
+	 * are identified by their <code>Implementation-Version</code>.  Snapshots
+	 * and classes without a version also use the size and time of the class
+	 * file, which for a jar are stored in the jar and do not depend on where
+	 * it was copied to.
+	 */
+	static String getCodeVersion(Class<?> type)
+	{
+		Package pkg = type.getPackage();
+		String version = pkg == null ? null : pkg.getImplementationVersion();
+		if (version != null && !version.endsWith("-SNAPSHOT"))
+		{
+			return version;
+		}
+		URL url = type.getResource(type.getSimpleName() + ".class");
+		if (url == null)
+		{
+			return String.valueOf(version);
+		}
+		try
+		{
+			URLConnection connection = url.openConnection();
+			return version + "|" + connection.getContentLengthLong() + "|" + connection.getLastModified();
+		}
+		catch (IOException e)
+		{
+			return version + "|" + url;
+		}
+	}
+
+	/**
+	 * Computes the key for an annotated class.
+	 *
+	 * @param values the values of the annotations, in a fixed order; may
+	 *               contain nulls for missing annotations.
+	 */
+	public String key(byte kind, String className, AnnotationValues... values)
+	{
+		MessageDigest digest = newDigest();
+		update(digest, salt);
+		digest.update(kind);
+		update(digest, className);
+		for (AnnotationValues annotation : values)
+		{
+			if (annotation == null)
+			{
+				digest.update((byte) 0);
+				continue;
+			}
+			digest.update((byte) 1);
+			update(digest, annotation.getAnnotationType());
+			for (Map.Entry<String,Object> entry : new TreeMap<>(annotation.asMap()).entrySet())
+			{
+				update(digest, entry.getKey());
+				Object value = entry.getValue();
+				if (value instanceof String[])
+				{
+					String[] array = (String[]) value;
+					digest.update((byte) 'a');
+					update(digest, Integer.toString(array.length));
+					for (String item : array)
+					{
+						update(digest, item);
+					}
+				}
+				else
+				{
+					digest.update((byte) 's');
+					update(digest, String.valueOf(value));
+				}
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @return the cached JSON or null if there is no usable entry.
+	 */
+	public byte[] get(String key)
+	{
+		File file = getFile(key);
+		if (!file.isFile())
+		{
+			return null;
+		}
+		try
+		{
+			return Files.readAllBytes(file.toPath());
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the JSON for the key.
+	 *
+	 * @return false if the entry could not be written.
+	 */
+	public boolean put(String key, byte[] json)
+	{
+		File file = getFile(key);
+		Path temp = null;
+		try
+		{
+			File parent = file.getParentFile();
+			if (!parent.mkdirs() && !parent.isDirectory())
+			{
+				return false;
+			}
+			temp = Files.createTempFile(parent.toPath(), key, ".tmp");
+			Files.write(temp, json);
+			try
+			{
+				Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			if (temp != null)
+			{
+				temp.toFile().delete();
+			}
+			return false;
+		}
+	}
+
+	private File getFile(String key)
+	{
+		return new File(new File(directory, key.substring(0, 2)), key + ".json");
+	}
+
+	/** Strings are length prefixed so different values never hash the same. */
+	private static void update(MessageDigest digest, String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		digest.update((byte) (length >>> 24));
+		digest.update((byte) (length >>> 16));
+		digest.update((byte) (length >>> 8));
+		digest.update((byte) length);
+		digest.update(bytes);
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes)
+	{
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; ++i)
+		{
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,85 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Streams metadata objects to JSON bytes.
+ * <p>
+ * Objects are written by an ObjectMapper configured like the one used by the
+ * {@link Serializer}, <code>null</code> values are omitted, so the output is
+ * the same.  A single {@link JsonGenerator} and its buffer are reused for
+ * every object and no intermediate String is created.
+ * <p>
+ * Emitters are not thread safe.
+ *
+ * @author Keith Suderman
+ */
+class MetadataEmitter
+{
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	static
+	{
+		mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+	}
+
+	private final Sink sink = new Sink();
+	private final JsonGenerator generator;
+
+	public MetadataEmitter(boolean pretty) throws IOException
+	{
+		JsonFactory factory = new JsonFactory(mapper);
+		// Every object is written as a separate root value.
+		factory.setRootValueSeparator(null);
+		generator = factory.createGenerator(sink);
+		if (pretty)
+		{
+			generator.setPrettyPrinter(new DefaultPrettyPrinter().withRootSeparator((String) null));
+		}
+	}
+
+	/**
+	 * Returns the UTF-8 encoded JSON for a metadata object.
+	 */
+	public byte[] emit(Object metadata) throws IOException
+	{
+		sink.reset();
+		mapper.writeValue(generator, metadata);
+		generator.flush();
+		return sink.toByteArray();
+	}
+
+	/**
+	 * A ByteArrayOutputStream whose buffer is kept between objects.
+	 */
+	private static class Sink extends ByteArrayOutputStream
+	{
+		Sink()
+		{
+			super(4096);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotations.runtime.MetadataFormat;
+import org.lappsgrid.metadata.DataSourceMetadata;
+import org.lappsgrid.metadata.IOSpecification;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates the metadata beans from the annotation values and serializes them.
+ * <p>
+ * Nothing in here touches the compiler's model, so a single generator can be
+ * shared by all the threads of the {@link MetadataProcessor}.  Each thread
+ * gets its own {@link MetadataEmitter}.
+ *
+ * @author Keith Suderman
+ */
+class MetadataGenerator
+{
+	private final VersionResolver versions;
+	private final DiscriminatorResolver discriminators;
+	private final ProcessorStats stats;
+	private final boolean pretty;
+	private final ThreadLocal<MetadataEmitter> emitters = new ThreadLocal<>();
+	/** Discriminator lookups on each thread since the last {@link #resetLookups()}. */
+	private final ThreadLocal<int[]> lookups = ThreadLocal.withInitial(() -> new int[1]);
+
+	public MetadataGenerator(VersionResolver versions, DiscriminatorResolver discriminators, ProcessorStats stats, boolean pretty)
+	{
+		this.stats = stats;
+		this.versions = versions;
+		this.discriminators = discriminators;
+		this.pretty = pretty;
+	}
+
+	public byte[] toJson(Object metadata) throws IOException
+	{
+		MetadataEmitter emitter = emitters.get();
+		if (emitter == null)
+		{
+			emitter = new MetadataEmitter(pretty);
+			emitters.set(emitter);
+		}
+		long start = stats.start();
+		try
+		{
+			return emitter.emit(metadata);
+		}
+		finally
+		{
+			stats.stop(ProcessorStats.Phase.SERIALIZE, start);
+		}
+	}
+
+	/**
+	 * Converts the JSON to each of the formats, in the same order.
+	 */
+	public byte[][] encode(List<MetadataFormat> formats, byte[] json) throws IOException
+	{
+		long start = stats.start();
+		try
+		{
+			byte[][] encoded = new byte[formats.size()][];
+			for (int i = 0; i < encoded.length; ++i)
+			{
+				encoded[i] = formats.get(i).encode(json);
+			}
+			return encoded;
+		}
+		finally
+		{
+			stats.stop(ProcessorStats.Phase.SERIALIZE, start);
+		}
+	}
+
+	/**
+	 * Returns the number of discriminator lookups made by the current thread
+	 * since the last call.
+	 */
+	public int resetLookups()
+	{
+		int[] count = lookups.get();
+		int result = count[0];
+		count[0] = 0;
+		return result;
+	}
+
+	public DataSourceMetadata createDataSourceMetadata(String className, AnnotationValues annotation) throws IOException
+	{
+		DataSourceMetadata metadata = new DataSourceMetadata();
+		metadata.setName(className);
+		if (annotation.getString("description") == null)
+		{
+			throw new IOException("Annotation description is null");
+		}
+		metadata.setDescription(get(annotation.getString("description")));
+		metadata.setVendor(get(annotation.getString("vendor")));
+		metadata.setLicense(getValue(annotation.getString("license")));
+		metadata.setAllow(getValue(annotation.getString("allow")));
+		metadata.setVersion(getVersion(annotation.getString("version")));
+		metadata.setEncoding(annotation.getString("encoding"));
+		metadata.setLanguage(Arrays.asList(annotation.getStrings("language")));
+		List<String> formats = new ArrayList<String>();
+		for (String format : annotation.getStrings("format"))
+		{
+			formats.add(getValue(format));
+		}
+		metadata.setFormat(formats);
+		return metadata;
+	}
+
+	public ServiceMetadata createServiceMetadata(String className, CombinedMetadata combined) throws IOException
+	{
+		ServiceMetadata metadata = new ServiceMetadata();
+		String name = combined.name();
+		if (name == null || name.length() == 0) {
+			name = className;
+		}
+		metadata.setName(name);
+		metadata.setDescription(get(combined.description()));
+		metadata.setVendor(get(combined.vendor()));
+		metadata.setLicense(getValue(combined.license()));
+		metadata.setLicenseDesc(getValue(combined.licenseDesc()));
+		metadata.setAllow(getValue(combined.allow()));
+		metadata.setVersion(getVersion(combined.version()));
+		metadata.setToolVersion(getValue(combined.toolVersion()));
+
+		// Populate the required IOSpecification
+		IOSpecification requires = metadata.getRequires();
+		for (String type : makeList(combined.inputFormat()))
+		{
+			requires.getFormat().add(getValue(type));
+		}
+
+		String encoding = combined.inputEncoding();
+		if (encoding != null && encoding.length() > 0)
+		{
+			requires.setEncoding(encoding);
+		}
+		addTagSets(requires, combined.inputTagSets());
+		requires.getLanguage().addAll(makeList(combined.inputLanguage()));
+		requires.getAnnotations().addAll(makeList(combined.requires()));
+
+		// Populate the produces IOSpecification
+		IOSpecification produces = metadata.getProduces();
+		makeList(combined.outputFormat()).forEach( format -> produces.getFormat().add(getValue(format)));
+
+		encoding = combined.outputEncoding();
+		if (encoding != null && encoding.length() > 0)
+		{
+			produces.setEncoding(encoding);
+		}
+		addTagSets(produces, combined.outputTagSets());
+		produces.getLanguage().addAll(makeList(combined.outputLanguage()));
+		produces.getAnnotations().addAll(makeList(combined.produces()));
+		return metadata;
+	}
+
+	private void addTagSets(IOSpecification spec, String[] tagsets) throws IOException
+	{
+		if (tagsets == null)
+		{
+			return;
+		}
+		for (String tagset : tagsets)
+		{
+			String[] parts = tagset.split("\\s+");
+			if (parts.length == 2) {
+				spec.addTagSet(parts[0], parts[1]);
+			}
+			else {
+				throw new IOException("Invalid tagset specification: " + tagset);
+			}
+		}
+	}
+
+	private String get(String string)
+	{
+		if (string == null || string.length() == 0)
+		{
+			return null;
+		}
+		return string;
+	}
+
+	private String getValue(String key)
+	{
+		long start = stats.start();
+		String value = discriminators.getValue(key);
+		stats.stop(ProcessorStats.Phase.DISCRIMINATORS, start);
+		++lookups.get()[0];
+		return value;
+	}
+
+	private String getVersion(String version)
+	{
+		long start = stats.start();
+		String value = versions.resolve(version);
+		stats.stop(ProcessorStats.Phase.VERSION, start);
+		return value;
+	}
+
+	private <T> List<T> makeList(T[] array)
+	{
+		if (array == null || array.length == 0) {
+			return new ArrayList<>();
+		}
+		return Arrays.asList(array);
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotations.runtime.IOFingerprint;
+import org.lappsgrid.annotations.runtime.IndexHeader;
+import org.lappsgrid.annotations.runtime.MetadataFormat;
+
+import javax.lang.model.element.Element;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Collects the metadata generated for every service and data source in a
+ * module and writes it as a single index file so a registry can load the
+ * whole catalog with one read.
+ * <p>
+ * The layout of the file is described in {@link IndexHeader}.  Entries are
+ * sorted by class name so the index is identical between builds.
+ * <p>
+ * When the processor only compiles some of the classes in a module, e.g. in
+ * an IDE, the entries for the other classes are copied from the index
+ * already in the output with {@link #merge(byte[], Predicate)}.
+ *
+ * @author Keith Suderman
+ */
+public final class MetadataIndex
+{
+	private final MetadataFormat format;
+	private final Map<String,Entry> entries = new TreeMap<>();
+
+	MetadataIndex(MetadataFormat format)
+	{
+		this.format = format;
+	}
+
+	/**
+	 * Adds (or replaces) the metadata for a class.
+	 *
+	 * @param json    the generated JSON.
+	 * @param content the metadata in the index's format.
+	 */
+	void add(byte kind, String className, byte[] json, byte[] content, Element originating) throws IOException
+	{
+		IOFingerprint fingerprint = kind == IndexHeader.SERVICE ? IOFingerprint.of(json) : null;
+		synchronized (this)
+		{
+			entries.put(className, new Entry(kind, content, fingerprint, originating));
+		}
+	}
+
+	/**
+	 * Adds the entries from the index written by an earlier build that are
+	 * not in this index and are accepted by <code>keep</code>, so a build that
+	 * only compiles some of the classes does not drop the others.
+	 *
+	 * @param previous the bytes of the earlier index.
+	 * @return the JSON of the services that were added, by class name.
+	 * @throws IOException if the bytes are not an index of this version.
+	 */
+	synchronized Map<String,byte[]> merge(byte[] previous, Predicate<String> keep) throws IOException
+	{
+		IndexHeader header = IndexHeader.read(ByteBuffer.wrap(previous));
+		MetadataFormat previousFormat = header.getFormat();
+		Map<String,byte[]> services = new TreeMap<>();
+		for (int i = 0; i < header.size(); ++i)
+		{
+			String name = header.getName(i);
+			if (entries.containsKey(name) || !keep.test(name))
+			{
+				continue;
+			}
+			int start = header.getOffset(i);
+			byte[] content = Arrays.copyOfRange(previous, start, start + header.getLength(i));
+			byte[] json = content;
+			if (previousFormat != MetadataFormat.JSON)
+			{
+				json = previousFormat.toJson(content).getBytes(StandardCharsets.UTF_8);
+			}
+			if (previousFormat != format)
+			{
+				content = format.encode(json);
+			}
+			IOFingerprint fingerprint = null;
+			if (header.getKind(i) == IndexHeader.SERVICE)
+			{
+				// The header drops the fingerprints if the discriminator ids
+				// changed since the earlier build.
+				fingerprint = header.getFingerprint(i);
+				if (fingerprint == null)
+				{
+					fingerprint = IOFingerprint.of(json);
+				}
+				services.put(name, json);
+			}
+			entries.put(name, new Entry(header.getKind(i), content, fingerprint, null));
+		}
+		return services;
+	}
+
+	MetadataFormat getFormat()
+	{
+		return format;
+	}
+
+	synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/** The elements the entries in the index were generated from. */
+	synchronized Element[] getOriginatingElements()
+	{
+		List<Element> elements = new ArrayList<>(entries.size());
+		for (Entry entry : entries.values())
+		{
+			if (entry.originating != null)
+			{
+				elements.add(entry.originating);
+			}
+		}
+		return elements.toArray(new Element[elements.size()]);
+	}
+
+	synchronized void write(OutputStream stream) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(IndexHeader.MAGIC);
+		header.writeInt(IndexHeader.VERSION);
+		header.writeByte(format.getId());
+		header.writeLong(IOFingerprint.getTableFingerprint());
+		header.writeInt(entries.size());
+		int offset = 0;
+		for (Map.Entry<String,Entry> e : entries.entrySet())
+		{
+			Entry entry = e.getValue();
+			header.writeByte(entry.kind);
+			header.writeUTF(e.getKey());
+			header.writeInt(offset);
+			header.writeInt(entry.content.length);
+			if (entry.fingerprint != null)
+			{
+				entry.fingerprint.write(header);
+			}
+			offset += entry.content.length;
+		}
+		header.flush();
+		bytes.writeTo(stream);
+		for (Entry entry : entries.values())
+		{
+			stream.write(entry.content);
+		}
+	}
+
+	private static class Entry
+	{
+		final byte kind;
+		final byte[] content;
+		final IOFingerprint fingerprint;
+		final Element originating;
+
+		Entry(byte kind, byte[] content, IOFingerprint fingerprint, Element originating)
+		{
+			this.kind = kind;
+			this.content = content;
+			this.fingerprint = fingerprint;
+			this.originating = originating;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.lang.model.element.Element;
+import java.io.IOException;
+
+/**
+ * Destination for the files generated by the {@link MetadataProcessor}.
+ * <p>
+ * Paths are always relative, e.g. <code>metadata/org.anc.Service.json</code>,
+ * and each file is created on behalf of the elements it is generated from so
+ * build tools can track which source produced which output.
+ *
+ * @author Keith Suderman
+ */
+interface MetadataOutput
+{
+	/**
+	 * Writes the content to the file at the given relative path.  Outputs may
+	 * skip the write when the file already has exactly this content.
+	 *
+	 * @param path        the path of the file relative to the output root.
+	 * @param originating the element(s) the file is generated from.
+	 * @return true if the file was written, false if the write was skipped.
+	 */
+	boolean write(String path, byte[] content, Element... originating) throws IOException;
+
+	/**
+	 * Reads a file written by an earlier build.
+	 *
+	 * @return the content of the file, or null if there is no such file.
+	 */
+	byte[] read(String path) throws IOException;
+
+	/**
+	 * A human readable description of where the file will be written. Used
+	 * for logging only.
+	 */
+	String describe(String path);
+
+	/**
+	 * Whether files may be written from threads other than the compiler's.
+	 * The Filer may only be used from the thread that called the processor.
+	 */
+	boolean isThreadSafe();
+}
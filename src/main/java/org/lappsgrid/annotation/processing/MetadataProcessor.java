@@ -16,31 +16,36 @@
  */
 package org.lappsgrid.annotation.processing;
 
-import org.lappsgrid.discriminator.Discriminator;
-import org.lappsgrid.discriminator.DiscriminatorRegistry;
 import org.lappsgrid.annotations.CommonMetadata;
 import org.lappsgrid.annotations.DataSourceMetadata;
 import org.lappsgrid.annotations.ServiceMetadata;
-import org.lappsgrid.metadata.IOSpecification;
-import org.xml.sax.InputSource;
+import org.lappsgrid.annotations.runtime.IndexHeader;
+import org.lappsgrid.annotations.runtime.MetadataFormat;
+import org.lappsgrid.annotations.runtime.MetadataRegistry;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.TypeMirror;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.BufferedReader;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //import org.lappsgrid.metadata.ContentType;
 
@@ -51,26 +56,44 @@ import java.util.*;
 //		  "org.lappsgrid.experimental.annotations.DataSourceMetadata"})
 @SupportedAnnotationTypes({"org.lappsgrid.annotations.ServiceMetadata",
 		  "org.lappsgrid.annotations.DataSourceMetadata",
-		  "org.lappsgrid.annotations.CommonMetadata"})
+		  "org.lappsgrid.annotations.CommonMetadata",
+		  "org.lappsgrid.annotations.retained.ServiceMetadata",
+		  "org.lappsgrid.annotations.retained.DataSourceMetadata",
+		  "org.lappsgrid.annotations.retained.CommonMetadata"})
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
 public class MetadataProcessor extends AbstractProcessor implements Processor
 {
-//   private Properties defaults = new Properties();
-
-	public MetadataProcessor()
-	{
-		System.out.println("Creating MetadataProcessor");
-	}
+	/** Tells Gradle that this processor is an isolating processor. */
+	static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+
+	/** Directory, relative to the output root, for the generated JSON. */
+	static final String METADATA_DIR = "metadata/";
+
+	/** The most threads used to write files in the last round. */
+	static final int WRITERS = 4;
+
+	private boolean incremental;
+	private boolean holders;
+	private List<MetadataFormat> formats = Collections.singletonList(MetadataFormat.JSON);
+	private MetadataIndex index;
+	private CompatibilityGraph graph;
+	private MetadataOutput output;
+	private VersionResolver versions;
+	private DiscriminatorResolver discriminators;
+	private AnnotationExtractor extractor;
+	private MetadataGenerator generator;
+	private MetadataCache cache;
+	private ExecutorService executor;
+	private final List<Job> jobs = new ArrayList<>();
+	private final List<PendingWrite> pending = new ArrayList<>();
+	/** The top level types compiled in this build, used to merge the index. */
+	private final Set<String> compiled = new HashSet<>();
+	private final ProcessorStats stats = new ProcessorStats();
+	private final ProcessorEvents events = ProcessorEvents.getInstance();
+	private Log log = new Log(null, Log.Level.WARN);
+	private File report;
 
-	private void log(String message)
-	{
-		System.out.println(message);
-	}
-
-	private void debug(String message)
-	{
-//		System.out.println(message);
-	}
+//   private Properties defaults = new Properties();
 
 	private String toString(String[] list)
 	{
@@ -98,493 +121,743 @@ public class MetadataProcessor extends AbstractProcessor implements Processor
 		return buffer.toString();
 	}
 
-	private void log(CombinedMetadata meta)
+	private void dump(CombinedMetadata meta)
+	{
+		log.debug(() -> "Dumping combined metadata.");
+		log.debug(() -> "Vendor: " + meta.vendor());
+		log.debug(() -> "Version: " + meta.version());
+		log.debug(() -> "Description: " + meta.description());
+		log.debug(() -> "Encoding: " + meta.inputEncoding() + " -> " + meta.outputEncoding());
+		log.debug(() -> "Allow: " + meta.allow());
+		log.debug(() -> "Format: " + toString(meta.inputFormat()) + " -> " + toString(meta.outputFormat()));
+		log.debug(() -> "Language: " + toString(meta.inputLanguage()) + " -> " + toString(meta.outputLanguage()));
+		log.debug(() -> "Produces: " + toString(meta.produces()));
+		log.debug(() -> "Requires: " + toString(meta.requires()));
+	}
+
+	@Override
+	public synchronized void init(ProcessingEnvironment env)
+	{
+		super.init(env);
+		ProcessorOptions options = new ProcessorOptions(env.getOptions());
+		try
+		{
+			log = new Log(env.getMessager(), options.getLogLevel());
+		}
+		catch (IllegalArgumentException e)
+		{
+			env.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage());
+		}
+		incremental = options.isIncremental();
+		holders = options.generateHolders();
+		versions = new VersionResolver(options.getVersion());
+		discriminators = new DiscriminatorResolver();
+		extractor = new AnnotationExtractor(env.getElementUtils());
+		report = options.getReportFile();
+		try
+		{
+			formats = options.getFormats();
+			if (options.generateIndex())
+			{
+				index = new MetadataIndex(formats.get(0));
+				graph = new CompatibilityGraph();
+			}
+			generator = new MetadataGenerator(versions, discriminators, stats, !options.isCompact());
+			File cacheDir = options.getCacheDir();
+			if (cacheDir != null)
+			{
+				String salt = versions.getProjectVersion() + "|" +
+						DiscriminatorTable.getInstance().getFingerprint() + "|" + options.isCompact();
+				cache = new MetadataCache(cacheDir, salt);
+			}
+			int threads = options.getThreads();
+			if (threads > 1)
+			{
+				executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+			}
+			if (options.useFiler())
+			{
+				output = new FilerMetadataOutput(env.getFiler(), options.getLocation());
+			}
+			else
+			{
+				output = new FileMetadataOutput(options.getOutputDir());
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			env.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * In addition to our own options we report the Gradle incremental
+	 * processing category.  The processor is registered as <i>dynamic</i> in
+	 * META-INF/gradle/incremental.annotation.processors so Gradle asks for the
+	 * category after {@link #init(ProcessingEnvironment)} has been called.
+	 * <p>
+	 * Gradle does not track <code>package-info.java</code> for isolating
+	 * processors, so the files of services with package defaults also list the
+	 * packages as originating elements, see {@link #getOriginatingElements}.
+	 */
+	@Override
+	public Set<String> getSupportedOptions()
 	{
-		debug("Dumping combined metadata.");
-		debug("Vendor: " + meta.vendor());
-		debug("Version: " + meta.version());
-		debug("Description: " + meta.description());
-		debug("Encoding: " + meta.inputEncoding() + " -> " + meta.outputEncoding());
-		debug("Allow: " + meta.allow());
-		debug("Format: " + meta.inputFormat() + " -> " + meta.outputFormat());
-		debug("Language: " + meta.inputLanguage() + " -> " + meta.outputLanguage());
-		debug("Produces: " + toString(meta.produces()));
-		debug("Requires: " + toString(meta.requires()));
+		Set<String> options = new HashSet<>(ProcessorOptions.names());
+		if (incremental && index == null)
+		{
+			// The index aggregates all services so the processor is no longer
+			// isolating.  Only the annotations in the retained package are
+			// visible in class files, and Gradle can only reprocess those for
+			// an aggregating processor.  As the SOURCE retention annotations
+			// are still supported we report neither category, and Gradle falls
+			// back to full recompilation when the index is enabled.
+			options.add(GRADLE_ISOLATING);
+		}
+		return options;
 	}
 
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations,
 								  RoundEnvironment roundEnv)
 	{
-      log("Running the MetaData annotation processor.");
-		File root = new File("src/main/resources/metadata");
-		if (!root.exists())
+		if (roundEnv.processingOver())
 		{
-			if (!root.mkdirs())
+			long start = stats.start();
+			if (output != null && index != null && mergeIndex())
+			{
+				writeIndex();
+				writeGraph();
+			}
+			if (!pending.isEmpty())
+			{
+				flush();
+				stats.round(start);
+			}
+			if (executor != null)
 			{
-				log("Could not create directory " + root.getPath());
-				log("ServiceMetadata files will not be generated.");
-				return false;
+				executor.shutdown();
+				executor = null;
 			}
+			report();
+			return false;
 		}
-		processServiceMetadata(root, annotations, roundEnv);
-		processDataSourceMetadata(root, annotations, roundEnv);
+		if (index != null)
+		{
+			for (Element root : roundEnv.getRootElements())
+			{
+				if (root instanceof TypeElement)
+				{
+					compiled.add(((TypeElement) root).getQualifiedName().toString());
+				}
+			}
+		}
+		if (output == null || annotations.isEmpty())
+		{
+			// Nothing new was generated for us in this round.
+			return false;
+		}
+		log.debug(() -> "Running the MetaData annotation processor.");
+		long start = stats.start();
+		extractor.reset();
+		processServiceMetadata(annotations, roundEnv);
+		processDataSourceMetadata(annotations, roundEnv);
+		runJobs();
+		jobs.clear();
+		stats.round(start);
 		return false;
 	}
 
-	protected void processServiceMetadata(File root, Set<? extends TypeElement> annotations,
+	/**
+	 * Reports the time spent and the work done as a compiler note and, if
+	 * requested, as a JSON file.
+	 */
+	private void report()
+	{
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_HITS, discriminators.getHits());
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_MISSES, discriminators.getMisses());
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_MEMO_HITS, discriminators.getMemoHits());
+		if (stats.get(ProcessorStats.Counter.CLASSES) > 0)
+		{
+			log.info(stats::summary);
+		}
+		if (report != null)
+		{
+			try
+			{
+				stats.write(report);
+			}
+			catch (IOException e)
+			{
+				log.warn(() -> "Unable to write " + report.getPath() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	protected void processServiceMetadata(Set<? extends TypeElement> annotations,
 													  RoundEnvironment roundEnv)
 	{
-		log("processServiceMetadata " + root.getPath());
-		for (Element elem : roundEnv.getElementsAnnotatedWith(ServiceMetadata.class))
+		log.debug(() -> "processServiceMetadata");
+		long start = stats.start();
+		Set<Element> elements = getElementsAnnotatedWith(roundEnv, ServiceMetadata.class,
+				org.lappsgrid.annotations.retained.ServiceMetadata.class);
+		stats.stop(ProcessorStats.Phase.SCAN, start);
+		for (Element elem : elements)
 		{
 			if (elem.getKind() != ElementKind.CLASS || elem.getModifiers().contains(Modifier.ABSTRACT))
 			{
 				// We are only interested in concrete classes. The Metadata annotation
 				// can only be applied to Types (classes), but we only generate the
 				// metadata file for non-abstract classes.
-				debug("Skipping " + elem.getSimpleName());
+				log.debug(() -> "Skipping " + elem.getSimpleName());
+				stats.increment(ProcessorStats.Counter.SKIPPED_ABSTRACT);
 				continue;
 			}
 			TypeElement type = (TypeElement) elem;
 			String className = type.getQualifiedName().toString();
-//         TypeMirror parent = type.getSuperclass();
-//         ServiceMetadata parentMetadata = parent.getClass().getAnnotation(ServiceMetadata.class);
-			CommonMetadata common = type.getAnnotation(CommonMetadata.class);
-			ServiceMetadata metadata = type.getAnnotation(ServiceMetadata.class);
+			// The annotation values are copied here, on the compiler's thread.
+			start = stats.start();
+			AnnotationValues common = extractor.extractCommon(type);
+			AnnotationValues metadata = extractor.extract(type, ServiceMetadata.class);
+			if (metadata == null)
+			{
+				metadata = extractor.extract(type, org.lappsgrid.annotations.retained.ServiceMetadata.class);
+			}
+			stats.stop(ProcessorStats.Phase.EXTRACT, start);
 			if (common != null)
 			{
-				debug("parent class has metadata: " + common.toString());
+				log.debug(() -> "parent class has metadata: " + common.toString());
 			}
 			if (metadata != null)
 			{
-				debug("this class has metadata: " + className);
-				CombinedMetadata combined = new CombinedMetadata(common, metadata);
-				File file = new File(root, className + ".json");
-				debug("Generating ServiceMetadata for " + className);
-				try
-				{
-					writeMetadata(file, className, combined);
-				}
-				catch (IOException e)
-				{
-					log(e.getMessage());
-					e.printStackTrace();
-				}
+				log.debug(() -> "Generating ServiceMetadata for " + className);
+				jobs.add(new Job(type, IndexHeader.SERVICE, className, common, metadata,
+						getOriginatingElements(type)));
 			}
 		}
 	}
 
-	public void processDataSourceMetadata(File root, Set<? extends TypeElement> annotations,
+	public void processDataSourceMetadata(Set<? extends TypeElement> annotations,
 													  RoundEnvironment roundEnv)
 	{
-		log("Running the DataSourceMetadataProcessor");
-		for (Element elem : roundEnv.getElementsAnnotatedWith(DataSourceMetadata.class))
+		log.debug(() -> "Running the DataSourceMetadataProcessor");
+		long start = stats.start();
+		Set<Element> elements = getElementsAnnotatedWith(roundEnv, DataSourceMetadata.class,
+				org.lappsgrid.annotations.retained.DataSourceMetadata.class);
+		stats.stop(ProcessorStats.Phase.SCAN, start);
+		for (Element elem : elements)
 		{
 			if (elem.getKind() != ElementKind.CLASS || elem.getModifiers().contains(Modifier.ABSTRACT))
 			{
 				// We are only interested in concrete classes. The Metadata annotation
 				// can only be applied to Types (classes), but we only generate the
 				// metadata file for non-abstract classes.
-				debug("Skipping " + elem.getSimpleName());
+				log.debug(() -> "Skipping " + elem.getSimpleName());
+				stats.increment(ProcessorStats.Counter.SKIPPED_ABSTRACT);
 				continue;
 			}
 			TypeElement type = (TypeElement) elem;
 			String className = type.getQualifiedName().toString();
-			TypeMirror parent = type.getSuperclass();
-			DataSourceMetadata metadata = type.getAnnotation(DataSourceMetadata.class);
-			File file = new File(root, className + ".json");
-			debug("Generating DataSourceMetadata for " + className);
-			try
-			{
-				writeDataSourceMetadata(file, className, metadata);
-			}
-			catch (IOException e)
+			start = stats.start();
+			AnnotationValues metadata = extractor.extract(type, DataSourceMetadata.class);
+			if (metadata == null)
 			{
-				log(e.getMessage());
-				e.printStackTrace();
+				metadata = extractor.extract(type, org.lappsgrid.annotations.retained.DataSourceMetadata.class);
 			}
+			stats.stop(ProcessorStats.Phase.EXTRACT, start);
+			log.debug(() -> "Generating DataSourceMetadata for " + className);
+			jobs.add(new Job(type, IndexHeader.DATASOURCE, className, null, metadata, type));
 		}
 	}
 
-	private String getContentType(String name)
+	/**
+	 * The elements the files for a service are generated from: the service
+	 * and the packages its {@literal @}CommonMetadata defaults come from.
+	 * Gradle only tracks the dependencies of classes, so listing the packages
+	 * makes it recompile everything, rather than keep stale metadata, after a
+	 * <code>package-info.java</code> is edited.
+	 */
+	private Element[] getOriginatingElements(TypeElement type)
 	{
-		Discriminator d = DiscriminatorRegistry.getByName(name);
-		if (d == null)
+		List<PackageElement> packages = extractor.getAnnotatedPackages(type);
+		Element[] elements = new Element[packages.size() + 1];
+		elements[0] = type;
+		for (int i = 0; i < packages.size(); ++i)
 		{
-			return null;
+			elements[i + 1] = packages.get(i);
 		}
-		return d.getUri();
+		return elements;
 	}
 
-	private String get(String string)
+	/**
+	 * The elements with either the source or the runtime retained version of
+	 * an annotation, in the order the compiler reports them.
+	 */
+	private Set<Element> getElementsAnnotatedWith(RoundEnvironment roundEnv, Class<? extends Annotation> annotation,
+												  Class<? extends Annotation> retained)
 	{
-		if (string == null || string.length() == 0)
-		{
-			return null;
-		}
-		return string;
+		Set<Element> elements = new LinkedHashSet<>(roundEnv.getElementsAnnotatedWith(annotation));
+		elements.addAll(roundEnv.getElementsAnnotatedWith(retained));
+		return elements;
 	}
 
-	private String getValue(String key)
+	/**
+	 * Runs the jobs collected in this round, on the executor if there is one.
+	 * Everything that needs the compiler (the Filer, the Messager, the index of
+	 * originating elements) is then done here, on the compiler's thread, in
+	 * the order the elements were found so errors are always reported in the
+	 * same order.
+	 */
+	private void runJobs()
 	{
-		if (key == null || key.length() == 0)
+		if (executor == null)
 		{
-			return null;
+			for (Job job : jobs)
+			{
+				job.run();
+			}
 		}
-		if (key.startsWith("http"))
+		else if (!invokeAll(executor, jobs))
 		{
-			return key;
+			return;
 		}
-		Discriminator discriminator = DiscriminatorRegistry.getByName(key);
-		if (discriminator != null)
+		for (Job job : jobs)
 		{
-			return discriminator.getUri();
+			try
+			{
+				job.finish();
+			}
+			catch (IOException e)
+			{
+				job.error = e;
+			}
+			stats.increment(ProcessorStats.Counter.CLASSES);
+			if (job.error != null)
+			{
+				stats.increment(ProcessorStats.Counter.ERRORS);
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Unable to generate the metadata for " + job.className + ": " + job.error.getMessage(),
+						job.element);
+			}
 		}
-
-		return key;
 	}
 
 	/**
-	 * Attempts to find the version number.  If a version number
-	 * was supplied in the annotation that value is used. Otherwise the
-	 * processor looks for a file named VERSION in the project root directory.
-	 * If a VERSION file can not be found, or can not be parsed, the processor
-	 * attempts to parse the version from the pom file.
-	 * <p/>
-	 * Returns <code>null</code> if the version number can not be
-	 * determined.
+	 * Runs the tasks and waits for them to complete.  The tasks must catch
+	 * their own exceptions.
 	 *
-	 * @param version The version specified in the annotation or an empty
-	 *                string if the version was not specified in the
-	 *                annotation.
-	 * @return The version number if it can be determined, null otherwise.
+	 * @return false if the thread was interrupted.
 	 */
-	private String getVersion(String version)
+	private <T> boolean invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks)
 	{
-		if (version != null && version.length() > 0)
-		{
-			debug("Using version specified in the annotation: " + version);
-			return version;
-		}
-		File file = new File("VERSION");
-		if (file.exists())
+		try
 		{
-			debug("Attempting to parse VERSION file");
-			try
+			for (Future<T> future : executor.invokeAll(tasks))
 			{
-				BufferedReader reader = new BufferedReader(new FileReader(file));
-				String line = reader.readLine();
-				reader.close();
-				debug("Using version from VERSION file: " + line);
-				return line;
-			}
-			catch (IOException ignore)
-			{
-				// Fall through and try the pom.xml file.
+				future.get();
 			}
+			return true;
 		}
-
-		File pom = new File("pom.xml");
-		if (!pom.exists())
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Interrupted while generating the metadata.");
+			return false;
+		}
+		catch (ExecutionException e)
 		{
-			return "0.0.0.UNKNOWN";
+			throw new IllegalStateException(e.getCause());
 		}
-		debug("Attempting to get version from POM.");
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		xpath.setNamespaceContext(new MavenNamespaceContext());
-		String expression = "/maven:project/maven:version/text()";
+	}
+
+	/**
+	 * Adds the classes that were not compiled in this build from the index
+	 * written by the previous build, so compiling a single class in an IDE
+	 * does not remove every other class from the index and the graph.
+	 *
+	 * @return true if there is an index to write.
+	 */
+	private boolean mergeIndex()
+	{
+		byte[] previous;
 		try
 		{
-			XPathExpression xpr = xpath.compile(expression);
-			InputSource source = new InputSource(new FileReader(pom));
-			String s = xpr.evaluate(source);
-			debug("Version is " + s);
-			return s;
+			previous = output.read(MetadataRegistry.INDEX_PATH);
 		}
 		catch (IOException e)
 		{
-			log("IOException: " + e.getMessage());
-			e.printStackTrace();
-			return null;
+			log.warn(() -> "Unable to read " + output.describe(MetadataRegistry.INDEX_PATH) + ": " + e.getMessage());
+			previous = null;
 		}
-		catch (XPathExpressionException ignored)
+		if (previous != null)
 		{
-			log("Error parsing version: " + ignored.getMessage());
-			ignored.printStackTrace();
-			return null;
+			try
+			{
+				for (Map.Entry<String,byte[]> service : index.merge(previous, this::isUnchanged).entrySet())
+				{
+					graph.add(service.getKey(), service.getValue(), null);
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn(() -> "Replacing " + output.describe(MetadataRegistry.INDEX_PATH) + ": " + e.getMessage());
+			}
 		}
+		return previous != null || index.size() > 0;
 	}
 
-//   private <T> void addList(List<T> list, IOSpecification spec)
-//   {
-//      for (T item : list)
-//      {
-//         if (item instanceof ContentType)
-//         {
-//            spec.add((ContentType) item);
-//         }
-//         else if (item instanceof AnnotationType)
-//         {
-//            spec.add((AnnotationType) item);
-//         }
-//         else
-//         {
-//            spec.add((String) item);
-//         }
-//      }
-//   }
-
-	private void writeDataSourceMetadata(File file, String className, DataSourceMetadata annotation) throws IOException
+	/**
+	 * Whether the entry for a class in the previous index is still valid, i.e.
+	 * the class still exists and was not compiled in this build. Classes that
+	 * were compiled and are still annotated have already been added again.
+	 */
+	private boolean isUnchanged(String className)
 	{
-		org.lappsgrid.metadata.DataSourceMetadata metadata = new org.lappsgrid.metadata.DataSourceMetadata();
-		metadata.setName(className);
-		if (annotation == null)
+		Element element = processingEnv.getElementUtils().getTypeElement(className);
+		if (element == null)
 		{
-			//throw new IOException("annotation is null");
-			return;
+			return false;
 		}
-		if (annotation.description() == null)
+		while (element.getEnclosingElement().getKind() != ElementKind.PACKAGE)
 		{
-			throw new IOException("Annotation description is null");
+			element = element.getEnclosingElement();
 		}
-		metadata.setDescription(get(annotation.description()));
-		metadata.setVendor(get(annotation.vendor()));
-		metadata.setLicense(getValue(annotation.license()));
-		metadata.setAllow(getValue(annotation.allow()));
-//      log("Attempting to get version");
-		metadata.setVersion(getVersion(annotation.version()));
-		metadata.setEncoding(annotation.encoding());
-		metadata.setLanguage(Arrays.asList(annotation.language()));
-		List<String> formats = new ArrayList<String>();
-		for (String format : annotation.format())
-		{
-			formats.add(getValue(format));
-		}
-		metadata.setFormat(formats);
-//		metadata.setFormat(Arrays.asList(annotation.format()));
+		return !compiled.contains(((TypeElement) element).getQualifiedName().toString());
+	}
 
-		UTF8Writer writer = null;
+	/**
+	 * Writes the aggregated index for all the classes processed during the
+	 * build.
+	 */
+	private void writeIndex()
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		// Writing to a ByteArrayOutputStream does not fail.
 		try
 		{
-			writer = new UTF8Writer(file);
-			writer.write(Serializer.toJson(metadata)); // metadata.toPrettyJson());
-			log("Wrote " + file.getPath());
+			index.write(bytes);
 		}
-		finally
+		catch (IOException e)
 		{
-			if (writer != null)
-			{
-				writer.close();
-			}
+			throw new IllegalStateException(e);
 		}
+		pending.add(new PendingWrite(MetadataRegistry.INDEX_PATH, bytes.toByteArray(), null, index.getOriginatingElements()));
 	}
 
-	private void writeMetadata(File file, String className, CombinedMetadata combined) throws IOException
+	/**
+	 * Writes the compatibility graph for all the services processed during
+	 * the build.
+	 */
+	private void writeGraph()
 	{
-		org.lappsgrid.metadata.ServiceMetadata metadata = new org.lappsgrid.metadata.ServiceMetadata();
-		String name = combined.name();
-		if (name == null || name.length() == 0) {
-			name = className;
-		}
-		System.out.println("Service name is " + name);
-		metadata.setName(name);
-		metadata.setDescription(get(combined.description()));
-		metadata.setVendor(get(combined.vendor()));
-		metadata.setLicense(getValue(combined.license()));
-		metadata.setLicenseDesc(getValue(combined.licenseDesc()));
-		metadata.setAllow(getValue(combined.allow()));
-		metadata.setVersion(getVersion(combined.version()));
-		metadata.setToolVersion(getValue(combined.toolVersion()));
-
-		// Populate the required IOSpecification
-		IOSpecification requires = metadata.getRequires();
-		log("Setting format");
-		List<String> formats = makeList(combined.inputFormat());
-		debug("Combined formats.");
-		for (String type : formats)
-		{
-			debug(type.toString());
-			requires.getFormat().add(getValue(type));
-		}
-//		requires.getFormat().addAll(formats);
-
-//		debug("Required formats.");
-//		for (String type : requires.getFormat())
-//		{
-//			debug(type);
-//		}
-
-		String encoding = combined.inputEncoding();
-		if (encoding != null && encoding.length() > 0)
-		{
-			requires.setEncoding(encoding);
-		}
-
-		String[] tagsets = combined.inputTagSets();
-		if (tagsets != null && tagsets.length > 0) {
-			List<String> list = Arrays.asList(combined.inputTagSets());
-			for (String tagset :list) {
-				String[] parts = tagset.split("\\s+");
-				if (parts.length == 2) {
-					requires.addTagSet(parts[0], parts[1]);
-				}
-				else {
-					throw new IOException("Invalid tagset specification " + tagset);
-				}
-			}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			graph.write(bytes);
 		}
-      	List<String> languages = makeList(combined.inputLanguage());
-		requires.getLanguage().addAll(languages);
-
-		List<String> annotations = requires.getAnnotations();
-		List<String> types = makeList(combined.requires());
-		annotations.addAll(types);
-
-		// Populate the produces IOSpecification
-		IOSpecification produces = metadata.getProduces();
-		formats = makeList(combined.outputFormat());
-		//produces.getFormat().addAll(formats);
-		formats.forEach( format -> produces.getFormat().add(getValue(format)));
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		pending.add(new PendingWrite(MetadataRegistry.GRAPH_PATH, bytes.toByteArray(), null, graph.getOriginatingElements()));
+	}
 
-		encoding = combined.outputEncoding();
-		if (encoding != null && encoding.length() > 0)
+	/**
+	 * Writes all the files generated during the build.  Writing is deferred
+	 * to the last round so the compiler does not wait for the disk while it
+	 * still has work to do.  Files written through the Filer are written on
+	 * the compiler's thread, otherwise up to {@link #WRITERS} threads are
+	 * used.  Failures are reported as compile errors in the order the files
+	 * were generated.
+	 */
+	private void flush()
+	{
+		if (pending.isEmpty())
 		{
-			produces.setEncoding(encoding);
+			return;
 		}
-		tagsets = combined.outputTagSets();
-		if (tagsets != null && tagsets.length > 0) {
-			List<String> list = Arrays.asList(combined.outputTagSets());
-			for (String tagset :list) {
-				String[] parts = tagset.split("\\s+");
-				if (parts.length == 2) {
-					produces.addTagSet(parts[0], parts[1]);
-				}
-				else {
-					throw new IOException("Invalid tagset specification: " + tagset);
-				}
+		if (!output.isThreadSafe() || pending.size() == 1)
+		{
+			for (PendingWrite write : pending)
+			{
+				write.call();
 			}
 		}
-
-		languages = makeList(combined.outputLanguage());
-		produces.getLanguage().addAll(languages);
-
-		types = makeList(combined.produces());
-		annotations = produces.getAnnotations();
-		annotations.addAll(types);
-
-		UTF8Writer writer = null;
-		try
+		else
 		{
-			writer = new UTF8Writer(file);
-			writer.write(Serializer.toJson(metadata)); // metadata.toPrettyJson());
-			log("Wrote " + file.getAbsolutePath());
+			int threads = Math.min(WRITERS, pending.size());
+			ExecutorService writers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+			try
+			{
+				if (!invokeAll(writers, pending))
+				{
+					return;
+				}
+			}
+			finally
+			{
+				writers.shutdown();
+			}
 		}
-		finally
+		for (PendingWrite write : pending)
 		{
-			if (writer != null)
+			if (write.error == null)
+			{
+				count(write.path, write.written);
+			}
+			else
 			{
-				writer.close();
+				stats.increment(ProcessorStats.Counter.ERRORS);
+				String message = "Unable to write " + output.describe(write.path) + ": " + write.error.getMessage();
+				if (write.element != null)
+				{
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, write.element);
+				}
+				else
+				{
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+				}
 			}
 		}
+		pending.clear();
 	}
 
-	private interface Factory<T>
-	{
-		T make(String uri);
-	}
-
-//	private static class AnnotationTypeFactory implements Factory<AnnotationType>
-//	{
-//		public AnnotationType make(String uri)
-//		{
-////			System.out.println("AnnotationTypeFactory.make");
-////			System.out.println("Creating annotation type for " + uri);
-//			Discriminator d = DiscriminatorRegistry.getByName(uri);
-//			if (d == null)
-//			{
-//				d = DiscriminatorRegistry.getByUri(uri);
-//				if (d == null)
-//				{
-////					System.out.println("Unknown type. Returning a dummy.");
-//					return new AnnotationType();
-//				}
-//			}
-////			System.out.println("Creating annotation type for discriminator " + d.getUri());
-//			return new AnnotationType(d);
-//		}
-//	}
-
-	private <T> List<T> makeList(T[] array)
+	/**
+	 * Writes to the output and records the time taken. May be called from any
+	 * thread if the output is thread safe.
+	 */
+	private boolean writeOutput(String path, byte[] content, Element... originating) throws IOException
 	{
-		if (array == null || array.length == 0) {
-			return new ArrayList<>();
-		}
-		return Arrays.asList(array);
-//		List<String> list = new ArrayList<String>();
-//		if (array != null) {
-//			//list.addAll(Arrays.asList(array));
-//			for (String name : array) {
-//				list.add(getUri(name));
-//			}
-//		}
-//		return list;
+		Object event = events.beginWrite();
+		long start = stats.start();
+		boolean wasWritten = output.write(path, content, originating);
+		stats.stop(ProcessorStats.Phase.IO, start);
+		events.endWrite(event, path, content.length, wasWritten);
+		return wasWritten;
 	}
 
-	private String getUri(String name)
+	private void count(String path, boolean wasWritten)
 	{
-		Discriminator d = DiscriminatorRegistry.getByName(name);
-		if (d != null)
+		if (wasWritten)
 		{
-			return d.getUri();
+			stats.increment(ProcessorStats.Counter.FILES_WRITTEN);
+			log.debug(() -> "Wrote " + output.describe(path));
 		}
-		d = DiscriminatorRegistry.getByUri(name);
-		if (d != null)
+		else
 		{
-			return d.getUri();
+			stats.increment(ProcessorStats.Counter.FILES_UNCHANGED);
+			log.debug(() -> "Unchanged " + output.describe(path));
 		}
-		return name;
 	}
 
-	private <T> List<T> makeList(Factory<T> factory, String[] array)
+	/**
+	 * Generates the <code>MetadataHolder</code> class for a service.  Source
+	 * files are always created through the Filer regardless of the output
+	 * mode used for the JSON files.
+	 */
+	private void writeHolder(TypeElement element, Element[] originating, org.lappsgrid.metadata.ServiceMetadata metadata,
+							 String json) throws IOException
 	{
-		List<T> list = new ArrayList<>();
-		if (array == null)
+		String name = HolderGenerator.getHolderName(element);
+		String source = HolderGenerator.generate(element, metadata, json);
+		long start = stats.start();
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(name, originating);
+		Writer writer = file.openWriter();
+		try
 		{
-			return list;
+			writer.write(source);
+			log.debug(() -> "Wrote " + name);
 		}
-		for (String string : array)
+		finally
 		{
-			list.add(factory.make(string));
+			writer.close();
+			stats.stop(ProcessorStats.Phase.IO, start);
 		}
-		return list;
+		stats.increment(ProcessorStats.Counter.HOLDERS_WRITTEN);
 	}
 
-	class MavenNamespaceContext implements NamespaceContext
+	/**
+	 * Generates the metadata for one type.  {@link #call()} may run on any
+	 * thread and only uses the values copied from the annotations, while
+	 * {@link #finish()} is always called on the compiler's thread.
+	 */
+	private class Job implements Callable<Job>
 	{
+		final TypeElement element;
+		/** The element followed by the packages it takes defaults from. */
+		final Element[] originating;
+		final byte kind;
+		final String className;
+		private final AnnotationValues common;
+		private final AnnotationValues values;
+		private CombinedMetadata combined;
+		private Object metadata;
+		private byte[] json;
+		/** The JSON in each of the output formats. */
+		private byte[][] encoded;
+		Exception error;
+
+		/**
+		 * @param common the merged {@literal @}CommonMetadata for a service, may be null.
+		 * @param values the values of the {@literal @}ServiceMetadata or
+		 *               {@literal @}DataSourceMetadata annotation.
+		 */
+		Job(TypeElement element, byte kind, String className, AnnotationValues common, AnnotationValues values,
+			Element... originating)
+		{
+			this.element = element;
+			this.originating = originating;
+			this.kind = kind;
+			this.className = className;
+			this.common = common;
+			this.values = values;
+		}
+
+		boolean isService()
+		{
+			return kind == IndexHeader.SERVICE;
+		}
 
 		@Override
-		public String getNamespaceURI(String prefix)
+		public Job call()
 		{
-			debug("Getting namespace for prefix " + prefix);
-			if ("maven".equals(prefix))
+			run();
+			return this;
+		}
+
+		void run()
+		{
+			Object event = events.beginElement();
+			generator.resetLookups();
+			try
+			{
+				String key = null;
+				if (cache != null)
+				{
+					key = cache.key(kind, className, common, values);
+					json = cache.get(key);
+					stats.increment(json != null ? ProcessorStats.Counter.CACHE_HITS : ProcessorStats.Counter.CACHE_MISSES);
+				}
+				if (json == null)
+				{
+					if (isService())
+					{
+						long start = stats.start();
+						combined = new CombinedMetadata(common, values);
+						stats.stop(ProcessorStats.Phase.MERGE, start);
+						metadata = generator.createServiceMetadata(className, combined);
+					}
+					else
+					{
+						metadata = generator.createDataSourceMetadata(className, values);
+					}
+					json = generator.toJson(metadata);
+					if (cache != null)
+					{
+						cache.put(key, json);
+					}
+				}
+				encoded = generator.encode(formats, json);
+			}
+			catch (Exception e)
+			{
+				error = e;
+			}
+			finally
+			{
+				events.endElement(event, className, isService() ? "service" : "datasource",
+						json == null ? 0 : json.length, generator.resetLookups());
+			}
+		}
+
+		void finish() throws IOException
+		{
+			if (error != null)
+			{
+				return;
+			}
+			if (combined != null && log.isEnabled(Log.Level.DEBUG))
 			{
-				debug("Return MAVEN URL.");
-				return "http://maven.apache.org/POM/4.0.0";
+				dump(combined);
+			}
+			if (index != null)
+			{
+				// The index is written in the first format.
+				index.add(kind, className, json, encoded[0], element);
+			}
+			if (graph != null && isService())
+			{
+				graph.add(className, json, element);
+			}
+			for (int i = 0; i < formats.size(); ++i)
+			{
+				String path = METADATA_DIR + className + "." + formats.get(i).getExtension();
+				pending.add(new PendingWrite(path, encoded[i], element, originating));
+			}
+			if (holders && isService())
+			{
+				String string = new String(json, StandardCharsets.UTF_8);
+				if (metadata == null)
+				{
+					// The JSON came from the cache.
+					metadata = new org.lappsgrid.metadata.ServiceMetadata(Serializer.parse(string, Map.class));
+				}
+				writeHolder(element, originating, (org.lappsgrid.metadata.ServiceMetadata) metadata, string);
 			}
-			return null;
+		}
+	}
+
+	/**
+	 * A file that is written in the last round.
+	 */
+	private class PendingWrite implements Callable<PendingWrite>
+	{
+		final String path;
+		final byte[] content;
+		/** Where errors are reported, may be null. */
+		final Element element;
+		final Element[] originating;
+		boolean written;
+		IOException error;
+
+		PendingWrite(String path, byte[] content, Element element, Element... originating)
+		{
+			this.path = path;
+			this.content = content;
+			this.element = element;
+			this.originating = originating;
 		}
 
 		@Override
-		public String getPrefix(String namespaceURI)
+		public PendingWrite call()
 		{
-			return null;
+			try
+			{
+				written = writeOutput(path, content, originating);
+			}
+			catch (IOException e)
+			{
+				error = e;
+			}
+			return this;
 		}
+	}
+
+	/**
+	 * Daemon threads so a compiler that never reaches the last round does not
+	 * hang on exit.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger count = new AtomicInteger();
 
 		@Override
-		public Iterator getPrefixes(String namespaceURI)
+		public Thread newThread(Runnable runnable)
 		{
-			return null;
+			Thread thread = new Thread(runnable, "lappsgrid-metadata-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
@@ -0,0 +1,644 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotation.processing.ClassFileReader.ClassInfo;
+import org.lappsgrid.annotations.retained.CommonMetadata;
+import org.lappsgrid.annotations.retained.DataSourceMetadata;
+import org.lappsgrid.annotations.retained.ServiceMetadata;
+import org.lappsgrid.annotations.runtime.IndexHeader;
+import org.lappsgrid.annotations.runtime.MetadataFormat;
+import org.lappsgrid.annotations.runtime.MetadataRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates the metadata for the services and data sources in compiled jars
+ * and class directories, for example to regenerate the JSON of a whole
+ * catalog after the discriminator vocabulary changes, without recompiling.
+ * <pre>
+ * java org.lappsgrid.annotation.processing.MetadataScanner [-Alappsgrid.&lt;option&gt;=&lt;value&gt;...] &lt;jar or directory&gt;...
+ * </pre>
+ * Only the runtime retained annotations in
+ * {@link org.lappsgrid.annotations.retained} are stored in class files, so
+ * jars built with the source retained <code>org.lappsgrid.annotations</code>
+ * can not be scanned and a warning is logged for each input without any
+ * annotated classes.  The classes are read with the {@link ClassFileReader}, nothing is loaded, and
+ * the values are merged, resolved and serialized the same way the
+ * {@link MetadataProcessor} does.
+ * <p>
+ * The inputs are read concurrently, then the metadata for all classes is
+ * generated and written concurrently.  When the same class is in more than
+ * one input the first one wins, as on a class path.  The options are the
+ * processor's: <code>outputDir</code> (default the current directory),
+ * <code>threads</code> (default all processors), <code>version</code>,
+ * <code>index</code>, <code>compact</code>, <code>format</code>,
+ * <code>log</code> and <code>report</code>.  A class without a version uses the version option,
+ * then the <code>Implementation-Version</code> of its jar.
+ *
+ * @author Keith Suderman
+ */
+public class MetadataScanner
+{
+	private static final String SERVICE = ServiceMetadata.class.getName();
+	private static final String COMMON = CommonMetadata.class.getName();
+	private static final String DATASOURCE = DataSourceMetadata.class.getName();
+
+	/** Processor options that do not apply to the scanner. */
+	private static final Set<String> IGNORED = new HashSet<>(Arrays.asList(ProcessorOptions.INCREMENTAL,
+			ProcessorOptions.OUTPUT, ProcessorOptions.LOCATION, ProcessorOptions.HOLDERS, ProcessorOptions.CACHE_DIR));
+
+	private final ProcessorOptions options;
+	private final Log log;
+	private final ProcessorStats stats = new ProcessorStats();
+	private final DiscriminatorResolver discriminators = new DiscriminatorResolver();
+	private final ConcurrentMap<String,MetadataGenerator> generators = new ConcurrentHashMap<>();
+	private final ClassFileReader reader = new ClassFileReader(new HashSet<>(Arrays.asList(SERVICE, COMMON, DATASOURCE)));
+	private final List<MetadataFormat> formats;
+	private final MetadataOutput output;
+	private final MetadataIndex index;
+	private final CompatibilityGraph graph;
+
+	/** Every class in the inputs, in the order they were found. */
+	private final Map<String,Scanned> classes = new LinkedHashMap<>();
+	/** The explicit {@literal @}CommonMetadata values merged over each class and its super classes. */
+	private final Map<String,Map<String,Object>> chains = new HashMap<>();
+	private final Map<String,Map<String,Object>> packages = new HashMap<>();
+	private final Map<String,Map<String,Object>> defaults = new HashMap<>();
+	private int errors;
+
+	/**
+	 * @param options the same options as the annotation processor, without
+	 *                the <code>-A</code>.
+	 * @throws IllegalArgumentException if an option is not valid.
+	 */
+	public MetadataScanner(Map<String,String> options)
+	{
+		Map<String,String> values = new HashMap<>(options);
+		values.putIfAbsent(ProcessorOptions.OUTPUT_DIR, ".");
+		values.putIfAbsent(ProcessorOptions.THREADS, "0");
+		this.options = new ProcessorOptions(values);
+		log = new Log(null, this.options.getLogLevel());
+		for (String name : options.keySet())
+		{
+			if (!ProcessorOptions.names().contains(name))
+			{
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+			if (IGNORED.contains(name))
+			{
+				log.warn(() -> "The " + name + " option is ignored by the scanner.");
+			}
+		}
+		this.options.getThreads();
+		formats = this.options.getFormats();
+		output = new FileMetadataOutput(this.options.getOutputDir());
+		index = this.options.generateIndex() ? new MetadataIndex(formats.get(0)) : null;
+		graph = this.options.generateIndex() ? new CompatibilityGraph() : null;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String,String> options = new HashMap<>();
+		List<File> inputs = new ArrayList<>();
+		for (String arg : args)
+		{
+			if (arg.startsWith("-A"))
+			{
+				int equals = arg.indexOf('=');
+				if (equals < 0)
+				{
+					options.put(arg.substring(2), "true");
+				}
+				else
+				{
+					options.put(arg.substring(2, equals), arg.substring(equals + 1));
+				}
+			}
+			else if (arg.startsWith("-"))
+			{
+				usage();
+				System.exit(arg.equals("-h") || arg.equals("--help") ? 0 : 2);
+			}
+			else
+			{
+				inputs.add(new File(arg));
+			}
+		}
+		if (inputs.isEmpty())
+		{
+			usage();
+			System.exit(2);
+		}
+		MetadataScanner scanner;
+		try
+		{
+			scanner = new MetadataScanner(options);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		System.exit(scanner.scan(inputs) == 0 ? 0 : 1);
+	}
+
+	private static void usage()
+	{
+		System.err.println("usage: java " + MetadataScanner.class.getName() + " [-Alappsgrid.<option>=<value>...] <jar or directory>...");
+	}
+
+	/**
+	 * Generates the metadata for all the annotated classes in the inputs.
+	 *
+	 * @return the number of errors, they have been printed to System.err.
+	 */
+	public int scan(List<File> inputs) throws IOException, InterruptedException
+	{
+		long start = stats.start();
+		ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+		try
+		{
+			List<Input> reads = new ArrayList<>();
+			for (File file : inputs)
+			{
+				reads.add(new Input(file));
+			}
+			run(executor, reads);
+			for (Input input : reads)
+			{
+				for (String warning : input.warnings)
+				{
+					log.warn(() -> warning);
+				}
+				if (input.error != null)
+				{
+					error(input.file.getPath(), input.error);
+					continue;
+				}
+				for (Scanned scanned : input.found)
+				{
+					classes.putIfAbsent(scanned.info.name, scanned);
+				}
+			}
+			stats.stop(ProcessorStats.Phase.SCAN, start);
+
+			Set<File> annotated = new HashSet<>();
+			List<Job> jobs = createJobs(annotated);
+			for (Input input : reads)
+			{
+				if (input.error == null && !annotated.contains(input.file))
+				{
+					log.warn(() -> "No classes with runtime retained metadata annotations in " + input.file.getPath()
+							+ ". Classes compiled with the source retained annotations can not be scanned.");
+				}
+			}
+			run(executor, jobs);
+			for (Job job : jobs)
+			{
+				if (job.error != null)
+				{
+					error(job.className, job.error);
+				}
+			}
+			if (index != null && index.size() > 0)
+			{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				index.write(bytes);
+				write(MetadataRegistry.INDEX_PATH, bytes.toByteArray());
+			}
+			if (graph != null && graph.size() > 0)
+			{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				graph.write(bytes);
+				write(MetadataRegistry.GRAPH_PATH, bytes.toByteArray());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		stats.round(start);
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_HITS, discriminators.getHits());
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_MISSES, discriminators.getMisses());
+		stats.add(ProcessorStats.Counter.DISCRIMINATOR_MEMO_HITS, discriminators.getMemoHits());
+		log.info(stats::summary);
+		File report = options.getReportFile();
+		if (report != null)
+		{
+			stats.write(report);
+		}
+		return errors;
+	}
+
+	/**
+	 * Finds the services and data sources and copies their annotation values.
+	 *
+	 * @param annotated the inputs that contain services or data sources are
+	 *                  added to this set.
+	 */
+	private List<Job> createJobs(Set<File> annotated)
+	{
+		long start = stats.start();
+		List<Job> jobs = new ArrayList<>();
+		for (Scanned scanned : classes.values())
+		{
+			Map<String,Object> service = getInherited(scanned.info, SERVICE);
+			Map<String,Object> dataSource = service == null ? getInherited(scanned.info, DATASOURCE) : null;
+			if (service == null && dataSource == null)
+			{
+				continue;
+			}
+			annotated.add(scanned.input);
+			if (!scanned.info.isConcrete())
+			{
+				stats.increment(ProcessorStats.Counter.SKIPPED_ABSTRACT);
+				continue;
+			}
+			String className = scanned.info.name;
+			if (service != null)
+			{
+				jobs.add(new Job(scanned, IndexHeader.SERVICE, className, getCommon(scanned.info),
+						withDefaults(ServiceMetadata.class, service)));
+			}
+			else
+			{
+				jobs.add(new Job(scanned, IndexHeader.DATASOURCE, className, null,
+						withDefaults(DataSourceMetadata.class, dataSource)));
+			}
+		}
+		stats.stop(ProcessorStats.Phase.EXTRACT, start);
+		return jobs;
+	}
+
+	/**
+	 * The values of an {@link java.lang.annotation.Inherited} annotation on
+	 * the class or the nearest super class that has it.
+	 */
+	private Map<String,Object> getInherited(ClassInfo info, String annotation)
+	{
+		while (info != null)
+		{
+			Map<String,Object> values = info.annotations.get(annotation);
+			if (values != null)
+			{
+				return values;
+			}
+			info = getSuperclass(info);
+		}
+		return null;
+	}
+
+	private ClassInfo getSuperclass(ClassInfo info)
+	{
+		Scanned parent = info.superName == null ? null : classes.get(info.superName);
+		return parent == null ? null : parent.info;
+	}
+
+	/**
+	 * Merges the {@literal @}CommonMetadata of the class, its super classes,
+	 * its package and the parent packages, as
+	 * {@link AnnotationExtractor#extractCommon} does.
+	 */
+	private AnnotationValues getCommon(ClassInfo info)
+	{
+		String pkg = "";
+		int dot = info.name.lastIndexOf('.');
+		if (dot > 0)
+		{
+			pkg = info.name.substring(0, dot);
+		}
+		Map<String,Object> merged = AnnotationValues.merge(getChain(info), getPackage(pkg));
+		if (merged == null)
+		{
+			return null;
+		}
+		return withDefaults(CommonMetadata.class, merged);
+	}
+
+	private Map<String,Object> getChain(ClassInfo info)
+	{
+		if (chains.containsKey(info.name))
+		{
+			return chains.get(info.name);
+		}
+		ClassInfo parent = getSuperclass(info);
+		Map<String,Object> chain = AnnotationValues.merge(info.annotations.get(COMMON), parent == null ? null : getChain(parent));
+		chains.put(info.name, chain);
+		return chain;
+	}
+
+	private Map<String,Object> getPackage(String name)
+	{
+		if (packages.containsKey(name))
+		{
+			return packages.get(name);
+		}
+		Map<String,Object> parent = null;
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+		{
+			parent = getPackage(name.substring(0, dot));
+		}
+		Map<String,Object> own = null;
+		Scanned info = name.length() == 0 ? null : classes.get(name + ".package-info");
+		if (info != null)
+		{
+			own = info.info.annotations.get(COMMON);
+		}
+		Map<String,Object> merged = AnnotationValues.merge(own, parent);
+		packages.put(name, merged);
+		return merged;
+	}
+
+	private AnnotationValues withDefaults(Class<? extends Annotation> annotation, Map<String,Object> explicit)
+	{
+		Map<String,Object> values = new HashMap<>(getDefaults(annotation));
+		values.putAll(explicit);
+		return new AnnotationValues(annotation.getName(), values);
+	}
+
+	private Map<String,Object> getDefaults(Class<? extends Annotation> annotation)
+	{
+		return defaults.computeIfAbsent(annotation.getName(), name -> {
+			Map<String,Object> values = new HashMap<>();
+			for (Method method : annotation.getDeclaredMethods())
+			{
+				if (method.getDefaultValue() != null)
+				{
+					values.put(method.getName(), method.getDefaultValue());
+				}
+			}
+			return values;
+		});
+	}
+
+	private MetadataGenerator getGenerator(String jarVersion)
+	{
+		String version = options.getVersion();
+		if (version == null)
+		{
+			version = jarVersion == null ? VersionResolver.UNKNOWN : jarVersion;
+		}
+		return generators.computeIfAbsent(version, v ->
+				new MetadataGenerator(new VersionResolver(v), discriminators, stats, !options.isCompact()));
+	}
+
+	private boolean write(String path, byte[] content) throws IOException
+	{
+		long start = stats.start();
+		boolean written = output.write(path, content);
+		stats.stop(ProcessorStats.Phase.IO, start);
+		stats.increment(written ? ProcessorStats.Counter.FILES_WRITTEN : ProcessorStats.Counter.FILES_UNCHANGED);
+		if (written)
+		{
+			log.debug(() -> "Wrote " + output.describe(path));
+		}
+		return written;
+	}
+
+	private void error(String source, Exception e)
+	{
+		++errors;
+		stats.increment(ProcessorStats.Counter.ERRORS);
+		System.err.println("error: " + source + ": " + e.getMessage());
+	}
+
+	private static void run(ExecutorService executor, List<? extends Callable<Void>> tasks) throws InterruptedException
+	{
+		for (Future<Void> future : executor.invokeAll(tasks))
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException e)
+			{
+				// The tasks catch their own exceptions.
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * A class, the jar or directory it was found in and the version of the jar.
+	 */
+	private static class Scanned
+	{
+		final ClassInfo info;
+		final File input;
+		final String version;
+
+		Scanned(ClassInfo info, File input, String version)
+		{
+			this.info = info;
+			this.input = input;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Reads all the class files in a jar or directory.
+	 */
+	private class Input implements Callable<Void>
+	{
+		final File file;
+		final List<Scanned> found = new ArrayList<>();
+		final List<String> warnings = new ArrayList<>();
+		IOException error;
+
+		Input(File file)
+		{
+			this.file = file;
+		}
+
+		@Override
+		public Void call()
+		{
+			try
+			{
+				if (file.isDirectory())
+				{
+					readDirectory();
+				}
+				else
+				{
+					readJar();
+				}
+			}
+			catch (IOException e)
+			{
+				error = e;
+			}
+			return null;
+		}
+
+		private void readDirectory() throws IOException
+		{
+			Path root = file.toPath();
+			List<Path> paths;
+			try (Stream<Path> stream = Files.walk(root))
+			{
+				paths = stream.filter(path -> isClassFile(root.relativize(path).toString().replace(File.separatorChar, '/')))
+						.collect(Collectors.toList());
+			}
+			for (Path path : paths)
+			{
+				read(path.toString(), Files.readAllBytes(path), null);
+			}
+		}
+
+		private void readJar() throws IOException
+		{
+			try (JarFile jar = new JarFile(file))
+			{
+				Manifest manifest = jar.getManifest();
+				String version = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+				List<JarEntry> entries = jar.stream().filter(entry -> isClassFile(entry.getName())).collect(Collectors.toList());
+				for (JarEntry entry : entries)
+				{
+					try (InputStream stream = jar.getInputStream(entry))
+					{
+						read(file.getPath() + "!/" + entry.getName(), readAll(stream, (int) entry.getSize()), version);
+					}
+				}
+			}
+		}
+
+		private void read(String path, byte[] bytes, String version)
+		{
+			try
+			{
+				found.add(new Scanned(reader.read(bytes), file, version));
+			}
+			catch (IOException e)
+			{
+				warnings.add("Skipping " + path + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static boolean isClassFile(String name)
+	{
+		return name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class");
+	}
+
+	private static byte[] readAll(InputStream stream, int size) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size > 0 ? size : 4096);
+		byte[] buffer = new byte[8192];
+		int n = stream.read(buffer);
+		while (n > 0)
+		{
+			bytes.write(buffer, 0, n);
+			n = stream.read(buffer);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Generates and writes the metadata for one class.
+	 */
+	private class Job implements Callable<Void>
+	{
+		final Scanned scanned;
+		final byte kind;
+		final String className;
+		final AnnotationValues common;
+		final AnnotationValues values;
+		Exception error;
+
+		Job(Scanned scanned, byte kind, String className, AnnotationValues common, AnnotationValues values)
+		{
+			this.scanned = scanned;
+			this.kind = kind;
+			this.className = className;
+			this.common = common;
+			this.values = values;
+		}
+
+		@Override
+		public Void call()
+		{
+			try
+			{
+				stats.increment(ProcessorStats.Counter.CLASSES);
+				MetadataGenerator generator = getGenerator(scanned.version);
+				Object metadata;
+				if (kind == IndexHeader.SERVICE)
+				{
+					long start = stats.start();
+					CombinedMetadata combined = new CombinedMetadata(common, values);
+					stats.stop(ProcessorStats.Phase.MERGE, start);
+					metadata = generator.createServiceMetadata(className, combined);
+				}
+				else
+				{
+					metadata = generator.createDataSourceMetadata(className, values);
+				}
+				byte[] json = generator.toJson(metadata);
+				byte[][] encoded = generator.encode(formats, json);
+				for (int i = 0; i < encoded.length; ++i)
+				{
+					write(MetadataProcessor.METADATA_DIR + className + "." + formats.get(i).getExtension(), encoded[i]);
+				}
+				if (index != null)
+				{
+					index.add(kind, className, json, encoded[0], null);
+				}
+				if (graph != null && kind == IndexHeader.SERVICE)
+				{
+					graph.add(className, json, null);
+				}
+			}
+			catch (Exception e)
+			{
+				error = e;
+			}
+			return null;
+		}
+	}
+}
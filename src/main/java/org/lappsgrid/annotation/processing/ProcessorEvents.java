@@ -0,0 +1,89 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+/**
+ * Java Flight Recorder events emitted by the {@link MetadataProcessor}.
+ * <p>
+ * This class does nothing.  When the <code>jdk.jfr</code> module is
+ * available {@link #getInstance()} returns a <code>JfrProcessorEvents</code>
+ * instead, which is the only class that refers to the JFR API so the
+ * processor still runs on a Java 8 runtime without Flight Recorder.  That
+ * class is only compiled when the project is built with JDK 11 or later,
+ * see the <code>no-jfr</code> profile in the pom.
+ * <p>
+ * The <code>begin</code> methods return a token for the matching
+ * <code>end</code> method, or null if the event is not being recorded.
+ *
+ * @author Keith Suderman
+ */
+class ProcessorEvents
+{
+	static ProcessorEvents getInstance()
+	{
+		return Holder.INSTANCE;
+	}
+
+	/** Generating the metadata for one annotated class. */
+	Object beginElement()
+	{
+		return null;
+	}
+
+	void endElement(Object token, String className, String kind, int size, int discriminatorLookups)
+	{
+	}
+
+	/** Writing one file. */
+	Object beginWrite()
+	{
+		return null;
+	}
+
+	void endWrite(Object token, String path, int size, boolean written)
+	{
+	}
+
+	/** Looking up the project version. */
+	Object beginVersion()
+	{
+		return null;
+	}
+
+	void endVersion(Object token, String version, String source)
+	{
+	}
+
+	private static ProcessorEvents create()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			return (ProcessorEvents) Class.forName(ProcessorEvents.class.getPackage().getName() + ".JfrProcessorEvents")
+					.getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return new ProcessorEvents();
+		}
+	}
+
+	private static class Holder
+	{
+		static final ProcessorEvents INSTANCE = create();
+	}
+}
@@ -0,0 +1,341 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import org.lappsgrid.annotations.runtime.MetadataFormat;
+import org.lappsgrid.annotations.runtime.MetadataRegistry;
+
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The <code>-A</code> options understood by the {@link MetadataProcessor}.
+ *
+ * @author Keith Suderman
+ */
+public class ProcessorOptions
+{
+	/**
+	 * Enables incremental processing (<code>-Alappsgrid.incremental=true</code>).
+	 * Implies <code>-Alappsgrid.output=filer</code> since build tools can only
+	 * track files created through the Filer.
+	 */
+	public static final String INCREMENTAL = "lappsgrid.incremental";
+
+	/**
+	 * How the metadata files are written, either <code>file</code> (the
+	 * default) to write them below {@link #OUTPUT_DIR}, or <code>filer</code>
+	 * to create them through the compiler's Filer in {@link #LOCATION}.
+	 */
+	public static final String OUTPUT = "lappsgrid.output";
+
+	/**
+	 * The Filer location used when <code>lappsgrid.output=filer</code>.  One
+	 * of <code>CLASS_OUTPUT</code> (the default) or <code>SOURCE_OUTPUT</code>.
+	 */
+	public static final String LOCATION = "lappsgrid.location";
+
+	/**
+	 * The root directory used when <code>lappsgrid.output=file</code>.  The
+	 * default is <code>src/main/resources</code> relative to the working
+	 * directory of the compiler.
+	 */
+	public static final String OUTPUT_DIR = "lappsgrid.outputDir";
+
+	/**
+	 * The version to use for annotations that do not specify a version.
+	 * When not set the version is read from the VERSION file or pom.xml.
+	 */
+	public static final String VERSION = "lappsgrid.version";
+
+	/**
+	 * Generates a <code>&lt;Service&gt;MetadataHolder</code> class next to each
+	 * service (<code>-Alappsgrid.holders=true</code>) containing the metadata
+	 * as a compile time constant.
+	 */
+	public static final String HOLDERS = "lappsgrid.holders";
+
+	/**
+	 * Writes an index of all the metadata generated in the module to
+	 * {@link MetadataRegistry#INDEX_PATH} (<code>-Alappsgrid.index=true</code>).
+	 */
+	public static final String INDEX = "lappsgrid.index";
+
+	/**
+	 * Writes the JSON without indentation (<code>-Alappsgrid.compact=true</code>).
+	 */
+	public static final String COMPACT = "lappsgrid.compact";
+
+	/**
+	 * The number of threads used to generate the metadata
+	 * (<code>-Alappsgrid.threads=4</code>). The default is 1, i.e. everything
+	 * is done on the compiler's thread, and 0 uses one thread per processor.
+	 */
+	public static final String THREADS = "lappsgrid.threads";
+
+	/**
+	 * Writes the time spent and the work done by the processor as JSON
+	 * (<code>-Alappsgrid.report=true</code>) to {@link #DEFAULT_REPORT}, or to
+	 * the given file (<code>-Alappsgrid.report=build/report.json</code>).
+	 */
+	public static final String REPORT = "lappsgrid.report";
+
+	public static final String DEFAULT_REPORT = "target/lappsgrid-metadata-report.json";
+
+	/**
+	 * How much the processors log, one of <code>off</code>, <code>warn</code>,
+	 * <code>info</code> (the default) or <code>debug</code>.
+	 */
+	public static final String LOG = "lappsgrid.log";
+
+	/**
+	 * A directory for a cache of the generated JSON that is kept between
+	 * builds (<code>-Alappsgrid.cacheDir=/ci/cache/lappsgrid</code>).
+	 */
+	public static final String CACHE_DIR = "lappsgrid.cacheDir";
+
+	/**
+	 * A comma separated list of the formats to write the metadata in, any
+	 * of <code>json</code> (the default), <code>smile</code> and
+	 * <code>cbor</code> (<code>-Alappsgrid.format=json,smile</code>).  The
+	 * index is written in the first format.
+	 */
+	public static final String FORMAT = "lappsgrid.format";
+
+	public static final String FILE = "file";
+	public static final String FILER = "filer";
+
+	private static final Set<String> NAMES;
+
+	static {
+		Set<String> names = new LinkedHashSet<>();
+		names.add(INCREMENTAL);
+		names.add(OUTPUT);
+		names.add(LOCATION);
+		names.add(OUTPUT_DIR);
+		names.add(VERSION);
+		names.add(HOLDERS);
+		names.add(INDEX);
+		names.add(COMPACT);
+		names.add(THREADS);
+		names.add(REPORT);
+		names.add(LOG);
+		names.add(CACHE_DIR);
+		names.add(FORMAT);
+		NAMES = Collections.unmodifiableSet(names);
+	}
+
+	private final Map<String,String> options;
+
+	public ProcessorOptions(Map<String,String> options)
+	{
+		this.options = options;
+	}
+
+	/** The names of all options supported by the processor. */
+	public static Set<String> names()
+	{
+		return NAMES;
+	}
+
+	public boolean isIncremental()
+	{
+		return getBoolean(INCREMENTAL, false);
+	}
+
+	/**
+	 * Returns true if files should be written through the Filer.
+	 *
+	 * @throws IllegalArgumentException if the output mode is not recognized.
+	 */
+	public boolean useFiler()
+	{
+		if (isIncremental())
+		{
+			return true;
+		}
+		String mode = getString(OUTPUT, FILE);
+		if (FILER.equals(mode))
+		{
+			return true;
+		}
+		if (FILE.equals(mode))
+		{
+			return false;
+		}
+		throw new IllegalArgumentException("Invalid value for " + OUTPUT + ": " + mode);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not an output location.
+	 */
+	public StandardLocation getLocation()
+	{
+		String name = getString(LOCATION, StandardLocation.CLASS_OUTPUT.name());
+		StandardLocation location = StandardLocation.valueOf(name);
+		if (!location.isOutputLocation())
+		{
+			throw new IllegalArgumentException(name + " is not an output location.");
+		}
+		return location;
+	}
+
+	public File getOutputDir()
+	{
+		return new File(getString(OUTPUT_DIR, "src/main/resources"));
+	}
+
+	public String getVersion()
+	{
+		return getString(VERSION, null);
+	}
+
+	public boolean generateHolders()
+	{
+		return getBoolean(HOLDERS, false);
+	}
+
+	public boolean generateIndex()
+	{
+		return getBoolean(INDEX, false);
+	}
+
+	public boolean isCompact()
+	{
+		return getBoolean(COMPACT, false);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a number or is negative.
+	 */
+	public int getThreads()
+	{
+		String value = getString(THREADS, "1");
+		int threads;
+		try
+		{
+			threads = Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid value for " + THREADS + ": " + value);
+		}
+		if (threads < 0)
+		{
+			throw new IllegalArgumentException("Invalid value for " + THREADS + ": " + value);
+		}
+		if (threads == 0)
+		{
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return threads;
+	}
+
+	/**
+	 * @return the file for the build report or null if no report should be written.
+	 */
+	public File getReportFile()
+	{
+		String value = getString(REPORT, "false");
+		if ("false".equalsIgnoreCase(value))
+		{
+			return null;
+		}
+		if ("true".equalsIgnoreCase(value))
+		{
+			return new File(DEFAULT_REPORT);
+		}
+		return new File(value);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a log level.
+	 */
+	Log.Level getLogLevel()
+	{
+		String value = getString(LOG, Log.Level.INFO.name());
+		try
+		{
+			return Log.parse(value);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException("Invalid value for " + LOG + ": " + value);
+		}
+	}
+
+	/**
+	 * @return the cache directory or null if the cache is disabled.
+	 */
+	public File getCacheDir()
+	{
+		String value = getString(CACHE_DIR, null);
+		return value == null ? null : new File(value);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a value is not a format.
+	 */
+	public List<MetadataFormat> getFormats()
+	{
+		String value = getString(FORMAT, MetadataFormat.JSON.name());
+		List<MetadataFormat> formats = new ArrayList<>();
+		for (String name : value.split(","))
+		{
+			MetadataFormat format;
+			try
+			{
+				format = MetadataFormat.parse(name);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Invalid value for " + FORMAT + ": " + value);
+			}
+			if (!formats.contains(format))
+			{
+				formats.add(format);
+			}
+		}
+		return formats;
+	}
+
+	protected String getString(String key, String defaultValue)
+	{
+		String value = options.get(key);
+		if (value == null || value.length() == 0)
+		{
+			return defaultValue;
+		}
+		return value;
+	}
+
+	protected boolean getBoolean(String key, boolean defaultValue)
+	{
+		String value = options.get(key);
+		if (value == null || value.length() == 0)
+		{
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value);
+	}
+}
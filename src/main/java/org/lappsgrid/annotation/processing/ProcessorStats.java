@@ -0,0 +1,219 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each phase of the {@link MetadataProcessor} and counts of
+ * what it did.
+ * <p>
+ * Phases may be timed from several threads at once, so with
+ * <code>-Alappsgrid.threads</code> the phase times add up to more than the
+ * wall clock time of the rounds.
+ *
+ * @author Keith Suderman
+ */
+class ProcessorStats
+{
+	enum Phase
+	{
+		/** Finding the annotated elements. */
+		SCAN,
+		/** Reading the annotation values from the compiler's model. */
+		EXTRACT,
+		/** Merging the common and service metadata. */
+		MERGE,
+		/** Resolving discriminator short names. */
+		DISCRIMINATORS,
+		/** Finding the project version. */
+		VERSION,
+		/** Creating the JSON. */
+		SERIALIZE,
+		/** Writing the metadata, holder and index files. */
+		IO
+	}
+
+	enum Counter
+	{
+		CLASSES,
+		SKIPPED_ABSTRACT,
+		FILES_WRITTEN,
+		FILES_UNCHANGED,
+		HOLDERS_WRITTEN,
+		ERRORS,
+		DISCRIMINATOR_HITS,
+		DISCRIMINATOR_MISSES,
+		DISCRIMINATOR_MEMO_HITS,
+		CACHE_HITS,
+		CACHE_MISSES
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+	private static final Counter[] COUNTERS = Counter.values();
+
+	private final LongAdder[] times = new LongAdder[PHASES.length];
+	private final LongAdder[] counts = new LongAdder[COUNTERS.length];
+	private final List<Long> rounds = new ArrayList<>();
+
+	public ProcessorStats()
+	{
+		for (int i = 0; i < times.length; ++i)
+		{
+			times[i] = new LongAdder();
+		}
+		for (int i = 0; i < counts.length; ++i)
+		{
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Returns the start time to pass to {@link #stop(Phase, long)}.
+	 */
+	public long start()
+	{
+		return System.nanoTime();
+	}
+
+	public void stop(Phase phase, long start)
+	{
+		times[phase.ordinal()].add(System.nanoTime() - start);
+	}
+
+	public void increment(Counter counter)
+	{
+		counts[counter.ordinal()].increment();
+	}
+
+	public void add(Counter counter, long value)
+	{
+		counts[counter.ordinal()].add(value);
+	}
+
+	public long get(Counter counter)
+	{
+		return counts[counter.ordinal()].sum();
+	}
+
+	public long getNanos(Phase phase)
+	{
+		return times[phase.ordinal()].sum();
+	}
+
+	/** Records the wall clock time of one round.  Only called by the compiler's thread. */
+	public void round(long start)
+	{
+		rounds.add(System.nanoTime() - start);
+	}
+
+	public long getTotalNanos()
+	{
+		long total = 0;
+		for (long round : rounds)
+		{
+			total += round;
+		}
+		return total;
+	}
+
+	/**
+	 * A one line summary for the compiler's output.
+	 */
+	public String summary()
+	{
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("LAPPS metadata: ")
+				.append(get(Counter.CLASSES)).append(" classes in ")
+				.append(rounds.size()).append(" rounds, ")
+				.append(millis(getTotalNanos())).append(" ms (");
+		for (Phase phase : PHASES)
+		{
+			if (phase.ordinal() > 0)
+			{
+				buffer.append(", ");
+			}
+			buffer.append(name(phase)).append(' ').append(millis(getNanos(phase)));
+		}
+		buffer.append("); ")
+				.append(get(Counter.FILES_WRITTEN)).append(" files written, ")
+				.append(get(Counter.FILES_UNCHANGED)).append(" unchanged.");
+		return buffer.toString();
+	}
+
+	public void write(File file) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create directory " + parent.getPath());
+		}
+		try (JsonGenerator generator = new JsonFactory().createGenerator(file, JsonEncoding.UTF8))
+		{
+			generator.useDefaultPrettyPrinter();
+			generator.writeStartObject();
+			generator.writeNumberField("totalMillis", millis(getTotalNanos()));
+			generator.writeArrayFieldStart("roundMillis");
+			for (long round : rounds)
+			{
+				generator.writeNumber(millis(round));
+			}
+			generator.writeEndArray();
+			generator.writeObjectFieldStart("phaseMillis");
+			for (Phase phase : PHASES)
+			{
+				generator.writeNumberField(name(phase), millis(getNanos(phase)));
+			}
+			generator.writeEndObject();
+			generator.writeObjectFieldStart("counters");
+			for (Counter counter : COUNTERS)
+			{
+				generator.writeNumberField(name(counter), get(counter));
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+	}
+
+	/** Milliseconds with microsecond precision. */
+	private static double millis(long nanos)
+	{
+		return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+	}
+
+	/** SKIPPED_ABSTRACT becomes skippedAbstract */
+	private static String name(Enum<?> value)
+	{
+		String[] parts = value.name().toLowerCase(Locale.ROOT).split("_");
+		StringBuilder buffer = new StringBuilder(parts[0]);
+		for (int i = 1; i < parts.length; ++i)
+		{
+			buffer.append(Character.toUpperCase(parts[i].charAt(0))).append(parts[i].substring(1));
+		}
+		return buffer.toString();
+	}
+}
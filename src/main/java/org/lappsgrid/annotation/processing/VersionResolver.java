@@ -0,0 +1,237 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotation.processing;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Determines the version number to use when an annotation does not specify
+ * one.
+ * <p>
+ * The project version is looked up at most once per resolver, i.e. once per
+ * processing environment, in the following order:
+ * <ol>
+ *     <li>the <code>-Alappsgrid.version</code> option</li>
+ *     <li>the first line of a file named VERSION</li>
+ *     <li>the <code>&lt;version&gt;</code> of the project in pom.xml, or the
+ *     version of the parent pom if the project does not declare one</li>
+ * </ol>
+ * The values read from VERSION and pom.xml are also cached by path and
+ * modification time so processors running in a long lived JVM (e.g. a Gradle
+ * daemon) do not read the same files again.
+ *
+ * @author Keith Suderman
+ */
+class VersionResolver
+{
+	public static final String UNKNOWN = "0.0.0.UNKNOWN";
+
+	private static final ConcurrentMap<String,String> cache = new ConcurrentHashMap<>();
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private final String override;
+	private final File directory;
+	private String version;
+	/** Where the version was found, for the flight recorder. */
+	private String source;
+	private boolean resolved;
+
+	public VersionResolver(String override)
+	{
+		this(override, null);
+	}
+
+	/**
+	 * @param override  the version to use for all annotations that do not
+	 *                  specify one, may be null.
+	 * @param directory the project directory, or null for the current
+	 *                  working directory.
+	 */
+	public VersionResolver(String override, File directory)
+	{
+		this.override = override;
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the version to use for an annotation.
+	 *
+	 * @param version The version specified in the annotation or an empty
+	 *                string if the version was not specified in the
+	 *                annotation.
+	 * @return The version number if it can be determined, null otherwise.
+	 */
+	public String resolve(String version)
+	{
+		if (version != null && version.length() > 0)
+		{
+			return version;
+		}
+		return getProjectVersion();
+	}
+
+	public synchronized String getProjectVersion()
+	{
+		if (!resolved)
+		{
+			ProcessorEvents events = ProcessorEvents.getInstance();
+			Object event = events.beginVersion();
+			version = lookup();
+			resolved = true;
+			events.endVersion(event, version, source);
+		}
+		return version;
+	}
+
+	private String lookup()
+	{
+		if (override != null && override.length() > 0)
+		{
+			source = "option";
+			return override;
+		}
+		File file = new File(directory, "VERSION");
+		if (file.exists())
+		{
+			String line = cached(file, false);
+			if (line != null)
+			{
+				source = file.getPath();
+				return line;
+			}
+			// Fall through and try the pom.xml file.
+		}
+		File pom = new File(directory, "pom.xml");
+		if (!pom.exists())
+		{
+			source = "none";
+			return UNKNOWN;
+		}
+		source = pom.getPath();
+		return cached(pom, true);
+	}
+
+	private String cached(File file, boolean isPom)
+	{
+		String key = file.getAbsolutePath() + "@" + file.lastModified();
+		String value = cache.get(key);
+		if (value == null)
+		{
+			value = isPom ? readPom(file) : readVersionFile(file);
+			if (value != null)
+			{
+				cache.put(key, value);
+			}
+		}
+		return value;
+	}
+
+	private String readVersionFile(File file)
+	{
+		try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+		{
+			return reader.readLine();
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Streams through the pom until the project's own <code>&lt;version&gt;</code>
+	 * element is found. Elements nested deeper than the project's children,
+	 * e.g. dependency versions, are never considered.
+	 */
+	static String readPom(File pom)
+	{
+		XMLStreamReader reader = null;
+		try (InputStream stream = new FileInputStream(pom))
+		{
+			reader = factory.createXMLStreamReader(stream);
+			String parentVersion = null;
+			boolean inParent = false;
+			int depth = 0;
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					++depth;
+					String name = reader.getLocalName();
+					if (depth == 2 && "version".equals(name))
+					{
+						return reader.getElementText().trim();
+					}
+					if (depth == 2 && "parent".equals(name))
+					{
+						inParent = true;
+					}
+					else if (depth == 3 && inParent && "version".equals(name))
+					{
+						parentVersion = reader.getElementText().trim();
+						// getElementText consumed the end tag.
+						--depth;
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (depth == 2)
+					{
+						inParent = false;
+					}
+					--depth;
+				}
+			}
+			return parentVersion;
+		}
+		catch (IOException | XMLStreamException e)
+		{
+			return null;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (XMLStreamException ignored)
+				{
+					// Nothing we can do.
+				}
+			}
+		}
+	}
+}
@@ -34,9 +34,16 @@ import java.lang.annotation.*;
  * <tt>@ServiceMetadata</tt>. These two annotation interfaces are exactly
  * the same.
  * <p>
- * <b>Note:</b> The <tt>@CommonMetadata</tt> annotation must appear on
- * the immediate super class of the service for the annotation processor
- * to find it.
+ * The <tt>@CommonMetadata</tt> annotations of all the super classes of
+ * a service are merged, for each value the annotation on the nearest
+ * super class wins.
+ * <p>
+ * <tt>@CommonMetadata</tt> can also be used in a <tt>package-info.java</tt>
+ * file to provide defaults for all the services in the package and its
+ * sub-packages. Values from the super classes take precedence over the
+ * package, and the package over its parent packages. The
+ * <tt>package-info.java</tt> file must be compiled together with the
+ * services.
  * <p>
  * Any time a discriminator URI is required the <i>short name</i> (as
  * defined in <a href="http://vocab.lappsgrid.org/discriminators.html">http://vocab.lappsgrid.org/discriminators.html</a>)
@@ -52,7 +59,7 @@ import java.lang.annotation.*;
  * @author Keith Suderman
  */
 @Inherited
-@Target(ElementType.TYPE)
+@Target({ElementType.TYPE, ElementType.PACKAGE})
 @Retention(RetentionPolicy.SOURCE)
 public @interface CommonMetadata
 {
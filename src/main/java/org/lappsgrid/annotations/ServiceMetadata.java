@@ -33,9 +33,9 @@ import java.lang.annotation.*;
  * <tt>@ServiceMetadata</tt>. These two annotation interfaces are exactly
  * the same.
  * <p>
- * <b>Note:</b> The <tt>@CommonMetadata</tt> annotation must appear on
- * the immediate super class of the service for the annotation processor
- * to find it.
+ * The <tt>@CommonMetadata</tt> annotations of all the super classes of
+ * a service are merged, for each value the annotation on the nearest
+ * super class wins.
  * <p>
  * Any time a discriminator URI is required the <i>short name</i> (as
  * defined in <a href="http://vocab.lappsgrid.org/discriminators.html">http://vocab.lappsgrid.org/discriminators.html</a>)
@@ -0,0 +1,422 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.lappsgrid.discriminator.Discriminator;
+import org.lappsgrid.discriminator.DiscriminatorRegistry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bit set encodings of the formats, annotation types and languages a service
+ * requires and produces, so two services can be matched with a few AND
+ * operations instead of comparing lists of URIs.
+ * <p>
+ * The bits are assigned as follows:
+ * <ul>
+ *    <li>a discriminator URI or short name uses the bit given by its id in
+ *    the {@link DiscriminatorRegistry} (the smallest id when several names
+ *    share a URI), see {@link #getDiscriminatorId(String)};</li>
+ *    <li>a two letter ISO 639-1 language code <i>xy</i> uses bit
+ *    <code>(x - 'a') * 26 + (y - 'a')</code>.</li>
+ * </ul>
+ * Any other value, and discriminators with ids of 512 and above, are hashed
+ * into a 64 bit overflow word.  Overflow bits can collide, so a match that
+ * depends on them is only reported as {@link Match#MAYBE}.  Tag sets are
+ * not part of the fingerprint, see
+ * {@link MetadataRegistry#getCompatibleServices(String)} for the complete
+ * check.
+ * <p>
+ * The discriminator ids depend on the version of the registry, so the same
+ * service can have different fingerprints in different builds.  Indexes
+ * store the {@link #getTableFingerprint() table fingerprint} of the build
+ * that wrote them, and fingerprints are only comparable when it matches.
+ *
+ * @author Keith Suderman
+ */
+public final class IOFingerprint
+{
+	public enum Match { NO, YES, MAYBE }
+
+	/** Discriminators with larger ids go to the overflow word. */
+	static final int MAX_ID = 512;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Bits[] requires;
+	private final Bits[] produces;
+
+	private IOFingerprint(Bits[] requires, Bits[] produces)
+	{
+		this.requires = requires;
+		this.produces = produces;
+	}
+
+	/**
+	 * Computes the fingerprint for the generated metadata of a service.
+	 */
+	public static IOFingerprint of(byte[] json) throws IOException
+	{
+		JsonNode root = mapper.readTree(json);
+		return new IOFingerprint(encode(root.get("requires")), encode(root.get("produces")));
+	}
+
+	/**
+	 * Returns whether the output of this service can be used as the input
+	 * of the consumer.  {@link Match#NO} is always exact.
+	 */
+	public Match canFeed(IOFingerprint consumer)
+	{
+		Bits[] required = consumer.requires;
+		Match formats = required[0].isEmpty() ? Match.YES : produces[0].intersects(required[0]);
+		Match annotations = produces[1].containsAll(required[1]);
+		Match languages = required[2].isEmpty() || produces[2].isEmpty() ? Match.YES : produces[2].intersects(required[2]);
+		if (formats == Match.NO || annotations == Match.NO || languages == Match.NO)
+		{
+			return Match.NO;
+		}
+		if (formats == Match.MAYBE || annotations == Match.MAYBE || languages == Match.MAYBE)
+		{
+			return Match.MAYBE;
+		}
+		return Match.YES;
+	}
+
+	/** True if every value in the fingerprint has its own bit. */
+	public boolean isExact()
+	{
+		for (int i = 0; i < 3; ++i)
+		{
+			if (requires[i].overflow != 0 || produces[i].overflow != 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the requires and produces bit sets.  Each set is written as the
+	 * number of words (byte), the words (long) and the overflow word (long).
+	 */
+	public void write(DataOutput output) throws IOException
+	{
+		for (Bits bits : requires)
+		{
+			bits.write(output);
+		}
+		for (Bits bits : produces)
+		{
+			bits.write(output);
+		}
+	}
+
+	public static IOFingerprint read(DataInput input) throws IOException
+	{
+		Bits[] requires = new Bits[3];
+		Bits[] produces = new Bits[3];
+		for (int i = 0; i < 3; ++i)
+		{
+			requires[i] = Bits.read(input);
+		}
+		for (int i = 0; i < 3; ++i)
+		{
+			produces[i] = Bits.read(input);
+		}
+		return new IOFingerprint(requires, produces);
+	}
+
+	/**
+	 * A hash of the bits assigned to the discriminators in the current
+	 * registry.  Fingerprints computed with different table fingerprints
+	 * can not be compared.
+	 */
+	public static long getTableFingerprint()
+	{
+		return Ids.FINGERPRINT;
+	}
+
+	@Override
+	public boolean equals(Object object)
+	{
+		if (!(object instanceof IOFingerprint))
+		{
+			return false;
+		}
+		IOFingerprint other = (IOFingerprint) object;
+		return Arrays.equals(requires, other.requires) && Arrays.equals(produces, other.produces);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * Arrays.hashCode(requires) + Arrays.hashCode(produces);
+	}
+
+	private static Bits[] encode(JsonNode spec)
+	{
+		Bits.Builder formats = new Bits.Builder();
+		Bits.Builder annotations = new Bits.Builder();
+		Bits.Builder languages = new Bits.Builder();
+		if (spec != null)
+		{
+			for (JsonNode format : spec.path("format"))
+			{
+				addDiscriminator(formats, format.asText());
+			}
+			for (JsonNode annotation : spec.path("annotations"))
+			{
+				addDiscriminator(annotations, annotation.asText());
+			}
+			for (JsonNode language : spec.path("language"))
+			{
+				languages.add(language.asText(), languageBit(language.asText()));
+			}
+		}
+		return new Bits[] { formats.build(), annotations.build(), languages.build() };
+	}
+
+	/**
+	 * Discriminators with small ids get their own bit.  Other discriminators
+	 * are hashed by id, so the short name and the URI set the same overflow
+	 * bit.
+	 */
+	private static void addDiscriminator(Bits.Builder bits, String value)
+	{
+		Integer id = getDiscriminatorId(value);
+		if (id == null)
+		{
+			bits.add(value, null);
+		}
+		else if (id < MAX_ID)
+		{
+			bits.add(value, id);
+		}
+		else
+		{
+			bits.add(String.valueOf(id), null);
+		}
+	}
+
+	/**
+	 * Returns the id of the discriminator with the given short name or URI,
+	 * or null if the value is not a discriminator.  The name and the URI of a
+	 * discriminator have the same id, the smallest id when several
+	 * discriminators share a URI.
+	 */
+	public static Integer getDiscriminatorId(String value)
+	{
+		return Ids.INSTANCE.get(value);
+	}
+
+	static Integer languageBit(String code)
+	{
+		if (code.length() != 2)
+		{
+			return null;
+		}
+		char x = code.charAt(0);
+		char y = code.charAt(1);
+		if (x < 'a' || x > 'z' || y < 'a' || y > 'z')
+		{
+			return null;
+		}
+		return (x - 'a') * 26 + (y - 'a');
+	}
+
+	private static Map<String,Integer> buildIds()
+	{
+		Map<String,Integer> ids = new HashMap<>();
+		for (Discriminator d : DiscriminatorRegistry.discriminators())
+		{
+			long id = d.getId();
+			if (d.getUri() == null || id < 0 || id > Integer.MAX_VALUE)
+			{
+				continue;
+			}
+			Integer current = ids.get(d.getUri());
+			if (current == null || id < current)
+			{
+				ids.put(d.getUri(), (int) id);
+			}
+		}
+		for (Discriminator d : DiscriminatorRegistry.discriminators())
+		{
+			Integer id = ids.get(d.getUri());
+			if (d.getName() != null && id != null && !ids.containsKey(d.getName()))
+			{
+				ids.put(d.getName(), id);
+			}
+		}
+		return ids;
+	}
+
+	private static long hash(Map<String,Integer> ids)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Map.Entry<String,Integer> entry : new TreeMap<>(ids).entrySet())
+			{
+				digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '=');
+				digest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			return ByteBuffer.wrap(digest.digest()).getLong();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Ids
+	{
+		static final Map<String,Integer> INSTANCE = buildIds();
+		static final long FINGERPRINT = hash(INSTANCE);
+	}
+
+	/**
+	 * One set of values.  Trailing zero words are not stored.
+	 */
+	private static final class Bits
+	{
+		static final long[] NONE = new long[0];
+
+		final long[] words;
+		final long overflow;
+
+		Bits(long[] words, long overflow)
+		{
+			this.words = words;
+			this.overflow = overflow;
+		}
+
+		boolean isEmpty()
+		{
+			return words.length == 0 && overflow == 0;
+		}
+
+		Match intersects(Bits other)
+		{
+			int n = Math.min(words.length, other.words.length);
+			for (int i = 0; i < n; ++i)
+			{
+				if ((words[i] & other.words[i]) != 0)
+				{
+					return Match.YES;
+				}
+			}
+			return (overflow & other.overflow) != 0 ? Match.MAYBE : Match.NO;
+		}
+
+		Match containsAll(Bits other)
+		{
+			for (int i = 0; i < other.words.length; ++i)
+			{
+				long word = i < words.length ? words[i] : 0;
+				if ((other.words[i] & ~word) != 0)
+				{
+					return Match.NO;
+				}
+			}
+			if ((other.overflow & ~overflow) != 0)
+			{
+				return Match.NO;
+			}
+			return other.overflow != 0 ? Match.MAYBE : Match.YES;
+		}
+
+		public void write(DataOutput output) throws IOException
+		{
+			output.writeByte(words.length);
+			for (long word : words)
+			{
+				output.writeLong(word);
+			}
+			output.writeLong(overflow);
+		}
+
+		static Bits read(DataInput input) throws IOException
+		{
+			int n = input.readUnsignedByte();
+			long[] words = n == 0 ? NONE : new long[n];
+			for (int i = 0; i < n; ++i)
+			{
+				words[i] = input.readLong();
+			}
+			return new Bits(words, input.readLong());
+		}
+
+		@Override
+		public boolean equals(Object object)
+		{
+			if (!(object instanceof Bits))
+			{
+				return false;
+			}
+			Bits other = (Bits) object;
+			return overflow == other.overflow && Arrays.equals(words, other.words);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * Arrays.hashCode(words) + Long.hashCode(overflow);
+		}
+
+		static class Builder
+		{
+			private long[] words = NONE;
+			private long overflow;
+
+			void add(String value, Integer bit)
+			{
+				if (bit == null)
+				{
+					overflow |= 1L << (value.hashCode() & 63);
+					return;
+				}
+				int word = bit >>> 6;
+				if (word >= words.length)
+				{
+					words = Arrays.copyOf(words, word + 1);
+				}
+				words[word] |= 1L << (bit & 63);
+			}
+
+			Bits build()
+			{
+				return new Bits(words, overflow);
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * A metadata index generated by the annotation processor.
+ * <p>
+ * Index files on the file system are memory mapped, indexes inside jar files
+ * are read into memory with a single read.  Only the table of class names is
+ * decoded when the index is loaded, the metadata itself stays in the buffer
+ * until it is requested.
+ *
+ * @author Keith Suderman
+ * @see IndexHeader
+ */
+class IndexFile
+{
+	private final URL url;
+	private final ByteBuffer buffer;
+	private MetadataFormat format;
+
+	private IndexFile(URL url, ByteBuffer buffer)
+	{
+		this.url = url;
+		this.buffer = buffer;
+	}
+
+	static IndexFile open(URL url) throws IOException
+	{
+		return new IndexFile(url, load(url));
+	}
+
+	URL getUrl()
+	{
+		return url;
+	}
+
+	/** The format of the metadata in the index, only known after {@link #readEntries}. */
+	MetadataFormat getFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * Reads the table of entries and adds a {@link Location} for each class
+	 * that is not already in the map.
+	 */
+	void readEntries(Map<String,Location> services, Map<String,Location> dataSources) throws IOException
+	{
+		IndexHeader header;
+		try
+		{
+			header = IndexHeader.read(buffer);
+		}
+		catch (IOException e)
+		{
+			throw new IOException(e.getMessage() + ": " + url, e);
+		}
+		format = header.getFormat();
+		for (int i = 0; i < header.size(); ++i)
+		{
+			Map<String,Location> map = header.getKind(i) == IndexHeader.SERVICE ? services : dataSources;
+			if (!map.containsKey(header.getName(i)))
+			{
+				map.put(header.getName(i), new Location(this, header.getOffset(i), header.getLength(i),
+						header.getFingerprint(i)));
+			}
+		}
+	}
+
+	/**
+	 * Copies the bytes for one entry out of the index.
+	 */
+	byte[] read(int offset, int length)
+	{
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		return bytes;
+	}
+
+	private static ByteBuffer load(URL url) throws IOException
+	{
+		if ("file".equals(url.getProtocol()))
+		{
+			try
+			{
+				Path path = Paths.get(url.toURI());
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+				{
+					return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+			}
+			catch (URISyntaxException | IllegalArgumentException e)
+			{
+				// Fall through and read the stream.
+			}
+		}
+		try (InputStream stream = url.openStream())
+		{
+			byte[] bytes = new byte[8192];
+			int size = 0;
+			int n = stream.read(bytes, 0, bytes.length);
+			while (n > 0)
+			{
+				size += n;
+				if (size == bytes.length)
+				{
+					byte[] grown = new byte[bytes.length * 2];
+					System.arraycopy(bytes, 0, grown, 0, size);
+					bytes = grown;
+				}
+				n = stream.read(bytes, size, bytes.length - size);
+			}
+			return ByteBuffer.wrap(bytes, 0, size).slice();
+		}
+	}
+
+	/**
+	 * Where the metadata for one class is stored.
+	 */
+	static class Location
+	{
+		final IndexFile index;
+		final int offset;
+		final int length;
+		/**
+		 * Null for data sources and indexes written with a different table
+		 * fingerprint.
+		 */
+		final IOFingerprint fingerprint;
+
+		Location(IndexFile index, int offset, int length, IOFingerprint fingerprint)
+		{
+			this.index = index;
+			this.offset = offset;
+			this.length = length;
+			this.fingerprint = fingerprint;
+		}
+
+		byte[] read()
+		{
+			return index.read(offset, length);
+		}
+	}
+}
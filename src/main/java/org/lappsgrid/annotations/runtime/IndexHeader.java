@@ -0,0 +1,220 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The header and table of entries of a metadata index, and the constants
+ * for its binary layout.  Used by the {@link MetadataRegistry} to load an
+ * index and by the processor to merge the index of an earlier build.
+ * <p>
+ * The index is a binary file with the following layout (all integers are
+ * big endian):
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * byte   the {@link MetadataFormat} id of the metadata
+ * long   the {@link IOFingerprint#getTableFingerprint() table fingerprint}
+ *        the fingerprints were computed with
+ * int    number of entries
+ * entry* kind (byte), class name (modified UTF-8 as written by
+ *        DataOutput.writeUTF), offset (int) and length (int) of the
+ *        metadata in the data section and, for services only, the
+ *        {@link IOFingerprint}
+ * byte*  data section: the metadata of all entries
+ * </pre>
+ * Offsets are relative to the start of the data section.  Only indexes of
+ * the current version are read, the index is regenerated with the classes
+ * so there is no need to read older layouts.  The fingerprints of an index
+ * written with another table fingerprint are not returned.
+ *
+ * @author Keith Suderman
+ */
+public final class IndexHeader
+{
+	/** "LGMI" */
+	public static final int MAGIC = 0x4c474d49;
+	public static final int VERSION = 3;
+
+	/** The kind of an entry. */
+	public static final byte SERVICE = 0;
+	public static final byte DATASOURCE = 1;
+
+	private final MetadataFormat format;
+	private final byte[] kinds;
+	private final String[] names;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final IOFingerprint[] fingerprints;
+
+	private IndexHeader(MetadataFormat format, int count)
+	{
+		this.format = format;
+		kinds = new byte[count];
+		names = new String[count];
+		offsets = new int[count];
+		lengths = new int[count];
+		fingerprints = new IOFingerprint[count];
+	}
+
+	/**
+	 * Reads the header and the table of entries from the start of the
+	 * buffer.  The position of the buffer is not changed.
+	 *
+	 * @throws IOException if the buffer does not hold a valid index of the
+	 *                     current version.
+	 */
+	public static IndexHeader read(ByteBuffer buffer) throws IOException
+	{
+		ByteBuffer table = buffer.duplicate();
+		table.position(0);
+		DataInputStream input = new DataInputStream(new BufferInputStream(table));
+		if (input.readInt() != MAGIC)
+		{
+			throw new IOException("Not a metadata index");
+		}
+		int version = input.readInt();
+		if (version != VERSION)
+		{
+			throw new IOException("Unsupported metadata index version " + version);
+		}
+		MetadataFormat format;
+		try
+		{
+			format = MetadataFormat.forId(input.readByte());
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+		// Fingerprints computed with other discriminator ids are not used.
+		boolean sameTable = input.readLong() == IOFingerprint.getTableFingerprint();
+		int count = input.readInt();
+		if (count < 0)
+		{
+			throw new IOException("Invalid metadata index");
+		}
+		IndexHeader header = new IndexHeader(format, count);
+		for (int i = 0; i < count; ++i)
+		{
+			header.kinds[i] = input.readByte();
+			header.names[i] = input.readUTF();
+			header.offsets[i] = input.readInt();
+			header.lengths[i] = input.readInt();
+			if (header.kinds[i] == SERVICE)
+			{
+				IOFingerprint fingerprint = IOFingerprint.read(input);
+				header.fingerprints[i] = sameTable ? fingerprint : null;
+			}
+		}
+		// The data section starts where the table ends.
+		int data = table.position();
+		for (int i = 0; i < count; ++i)
+		{
+			int offset = header.offsets[i];
+			int length = header.lengths[i];
+			if (offset < 0 || length < 0 || (long) data + offset + length > buffer.limit())
+			{
+				throw new IOException("Invalid metadata index");
+			}
+			header.offsets[i] = data + offset;
+		}
+		return header;
+	}
+
+	/** The format of the metadata in the index. */
+	public MetadataFormat getFormat()
+	{
+		return format;
+	}
+
+	/** The number of entries. */
+	public int size()
+	{
+		return names.length;
+	}
+
+	/** {@link #SERVICE} or {@link #DATASOURCE}. */
+	public byte getKind(int i)
+	{
+		return kinds[i];
+	}
+
+	public String getName(int i)
+	{
+		return names[i];
+	}
+
+	/** The position of the entry's metadata from the start of the buffer. */
+	public int getOffset(int i)
+	{
+		return offsets[i];
+	}
+
+	public int getLength(int i)
+	{
+		return lengths[i];
+	}
+
+	/**
+	 * The fingerprint of a service, or null for data sources and indexes
+	 * written with a different table fingerprint.
+	 */
+	public IOFingerprint getFingerprint(int i)
+	{
+		return fingerprints[i];
+	}
+
+	/**
+	 * An InputStream view of a ByteBuffer that advances the buffer's position.
+	 */
+	private static class BufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			if (!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+		{
+			if (!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			int n = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, n);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The encodings the metadata can be written in, selected with
+ * <code>-Alappsgrid.format</code>.
+ * <p>
+ * The processor always generates JSON first; the binary formats are a
+ * streaming copy of the JSON tokens, so all formats hold exactly the same
+ * values and the binary files do not depend on whether the JSON came from
+ * the cache.  Smile and CBOR are smaller than JSON and much faster to
+ * decode, use {@link #read(InputStream)} or the runtime classes to read them.
+ *
+ * @author Keith Suderman
+ */
+public enum MetadataFormat
+{
+	JSON("json", 0, new JsonFactory()),
+	SMILE("smile", 1, new SmileFactory()),
+	CBOR("cbor", 2, new CBORFactory());
+
+	private static final MetadataFormat[] FORMATS = values();
+
+	private final String extension;
+	private final byte id;
+	private final JsonFactory factory;
+	private final ObjectMapper mapper;
+
+	MetadataFormat(String extension, int id, JsonFactory factory)
+	{
+		this.extension = extension;
+		this.id = (byte) id;
+		this.factory = factory;
+		this.mapper = new ObjectMapper(factory);
+	}
+
+	/** The file extension, without the dot. */
+	public String getExtension()
+	{
+		return extension;
+	}
+
+	/** The value used for the format in the metadata index. */
+	public byte getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if there is no format with the id.
+	 */
+	public static MetadataFormat forId(int id)
+	{
+		for (MetadataFormat format : FORMATS)
+		{
+			if (format.id == id)
+			{
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unknown metadata format " + id);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the name is not a format.
+	 */
+	public static MetadataFormat parse(String name)
+	{
+		return valueOf(name.trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Converts UTF-8 encoded JSON, as generated by the processor, to this
+	 * format.  Returns the same array for JSON.
+	 */
+	public byte[] encode(byte[] json) throws IOException
+	{
+		if (this == JSON)
+		{
+			return json;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length);
+		try (JsonParser parser = JSON.factory.createParser(json);
+			 JsonGenerator generator = factory.createGenerator(bytes))
+		{
+			parser.nextToken();
+			generator.copyCurrentStructure(parser);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes metadata in this format to the map the metadata beans are
+	 * created from.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String,Object> read(byte[] bytes) throws IOException
+	{
+		return mapper.readValue(bytes, Map.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Map<String,Object> read(InputStream stream) throws IOException
+	{
+		return mapper.readValue(stream, Map.class);
+	}
+
+	/**
+	 * Converts metadata in this format to indented JSON.
+	 */
+	public String toJson(byte[] bytes) throws IOException
+	{
+		if (this == JSON)
+		{
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		return JSON.mapper.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsString(mapper.readTree(bytes));
+	}
+}
@@ -0,0 +1,135 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import org.lappsgrid.annotation.processing.MetadataBuilder;
+import org.lappsgrid.metadata.DataSourceMetadata;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the metadata of a class from its runtime retained annotations (see
+ * {@link org.lappsgrid.annotations.retained}), for services in jars that
+ * were not compiled with the annotation processor.
+ * <p>
+ * The metadata is created by a {@link MetadataBuilder} the first time a
+ * class is requested and kept in a {@link ClassValue}, so later lookups do
+ * not lock or allocate and the entry goes away with the class.  The
+ * metadata objects are shared between all callers and must not be modified.
+ * <p>
+ * When the annotations do not specify a version the
+ * <code>Implementation-Version</code> of the class's package is used.
+ *
+ * @author Keith Suderman
+ */
+public final class MetadataReader
+{
+	private static final ConcurrentMap<String,MetadataBuilder> builders = new ConcurrentHashMap<>();
+
+	private static final ClassValue<Entry> entries = new ClassValue<Entry>() {
+		@Override
+		protected Entry computeValue(Class<?> type)
+		{
+			return read(type);
+		}
+	};
+
+	private MetadataReader() { }
+
+	/**
+	 * Returns the metadata for a service, or null if the class does not have
+	 * a runtime retained {@literal @}ServiceMetadata annotation.
+	 */
+	public static ServiceMetadata getServiceMetadata(Class<?> type) throws IOException
+	{
+		Object metadata = get(type).metadata;
+		return metadata instanceof ServiceMetadata ? (ServiceMetadata) metadata : null;
+	}
+
+	/**
+	 * Returns the metadata for a data source, or null if the class does not
+	 * have a runtime retained {@literal @}DataSourceMetadata annotation.
+	 */
+	public static DataSourceMetadata getDataSourceMetadata(Class<?> type) throws IOException
+	{
+		Object metadata = get(type).metadata;
+		return metadata instanceof DataSourceMetadata ? (DataSourceMetadata) metadata : null;
+	}
+
+	/**
+	 * Returns the metadata for a service or data source as JSON, formatted
+	 * the same way as the files written by the processor, or null if the
+	 * class is not annotated.
+	 */
+	public static String getJson(Class<?> type) throws IOException
+	{
+		return get(type).json;
+	}
+
+	private static Entry get(Class<?> type) throws IOException
+	{
+		Entry entry = entries.get(type);
+		if (entry.error != null)
+		{
+			throw new IOException("Invalid metadata for " + type.getName() + ": " + entry.error.getMessage(), entry.error);
+		}
+		return entry;
+	}
+
+	private static Entry read(Class<?> type)
+	{
+		Package pkg = type.getPackage();
+		String version = pkg == null ? null : pkg.getImplementationVersion();
+		MetadataBuilder builder = builders.computeIfAbsent(String.valueOf(version), key -> new MetadataBuilder(version));
+		try
+		{
+			Object metadata = builder.createServiceMetadata(type);
+			if (metadata == null)
+			{
+				metadata = builder.createDataSourceMetadata(type);
+			}
+			if (metadata == null)
+			{
+				return new Entry(null, null, null);
+			}
+			String json = new String(builder.toJson(metadata), StandardCharsets.UTF_8);
+			return new Entry(metadata, json, null);
+		}
+		catch (IOException e)
+		{
+			return new Entry(null, null, e);
+		}
+	}
+
+	private static class Entry
+	{
+		final Object metadata;
+		final String json;
+		final IOException error;
+
+		Entry(Object metadata, String json, IOException error)
+		{
+			this.metadata = metadata;
+			this.json = json;
+			this.error = error;
+		}
+	}
+}
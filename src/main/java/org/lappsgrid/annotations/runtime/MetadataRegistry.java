@@ -0,0 +1,330 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.lappsgrid.metadata.DataSourceMetadata;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Provides the metadata for all services and data sources whose metadata
+ * index ({@link #INDEX_PATH}) is available on the classpath.
+ * <p>
+ * Only the names in each index are read when the registry is created. The
+ * metadata for a class is decoded the first time it is requested and kept in
+ * a bounded LRU cache, so memory use is proportional to the metadata that is
+ * actually used rather than the size of the catalog.
+ * <p>
+ * If the same class appears in more than one index the first one found on
+ * the classpath wins.  Index and graph files that can not be read, e.g. ones
+ * written by another version of the processor, are skipped and reported by
+ * {@link #getErrors()}.
+ * <p>
+ * When the modules were compiled with <code>-Alappsgrid.index=true</code>
+ * the registry also loads their compatibility graphs ({@link #GRAPH_PATH}), see
+ * {@link #getCompatibleServices(String)}.
+ *
+ * @author Keith Suderman
+ */
+public class MetadataRegistry
+{
+	/** Location of the metadata index written by the processor. */
+	public static final String INDEX_PATH = "META-INF/lappsgrid/metadata.index";
+
+	/** Location of the compatibility graph written by the processor. */
+	public static final String GRAPH_PATH = "META-INF/lappsgrid/compatibility.index";
+
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Map<String,IndexFile.Location> services = new HashMap<>();
+	private final Map<String,IndexFile.Location> dataSources = new HashMap<>();
+	private final List<URL> indexes = new ArrayList<>();
+	private final Map<URL,String> errors = new LinkedHashMap<>();
+	private final Map<String,Set<String>> consumers = new HashMap<>();
+	private final Map<String,Object> cache;
+
+	/**
+	 * Loads the indexes visible to the thread's context class loader.
+	 */
+	public MetadataRegistry() throws IOException
+	{
+		this(Thread.currentThread().getContextClassLoader(), DEFAULT_CACHE_SIZE);
+	}
+
+	public MetadataRegistry(ClassLoader loader) throws IOException
+	{
+		this(loader, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param loader    the class loader used to find the indexes.
+	 * @param cacheSize the maximum number of decoded metadata objects to keep.
+	 */
+	public MetadataRegistry(ClassLoader loader, final int cacheSize) throws IOException
+	{
+		if (loader == null)
+		{
+			loader = MetadataRegistry.class.getClassLoader();
+		}
+		cache = new LinkedHashMap<String,Object>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Object> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		Enumeration<URL> urls = loader.getResources(INDEX_PATH);
+		while (urls.hasMoreElements())
+		{
+			URL url = urls.nextElement();
+			try
+			{
+				IndexFile.open(url).readEntries(services, dataSources);
+				indexes.add(url);
+			}
+			catch (IOException e)
+			{
+				errors.put(url, e.getMessage());
+			}
+		}
+		urls = loader.getResources(GRAPH_PATH);
+		while (urls.hasMoreElements())
+		{
+			URL url = urls.nextElement();
+			try
+			{
+				readGraph(url);
+			}
+			catch (IOException e)
+			{
+				errors.put(url, e.getMessage());
+			}
+		}
+	}
+
+	private void readGraph(URL url) throws IOException
+	{
+		JsonNode root;
+		try (InputStream stream = url.openStream())
+		{
+			root = mapper.readTree(stream);
+		}
+		JsonNode graph = root == null ? null : root.get("services");
+		if (graph == null || !graph.isObject())
+		{
+			throw new IOException("Invalid compatibility graph " + url);
+		}
+		// Read the whole graph before adding it so a bad file adds nothing.
+		Map<String,Set<String>> edges = new HashMap<>();
+		Iterator<Map.Entry<String,JsonNode>> fields = graph.fields();
+		while (fields.hasNext())
+		{
+			Map.Entry<String,JsonNode> field = fields.next();
+			if (!field.getValue().isArray())
+			{
+				throw new IOException("Invalid compatibility graph " + url);
+			}
+			Set<String> names = new TreeSet<>();
+			for (JsonNode name : field.getValue())
+			{
+				names.add(name.asText());
+			}
+			edges.put(field.getKey(), Collections.unmodifiableSet(names));
+		}
+		for (Map.Entry<String,Set<String>> entry : edges.entrySet())
+		{
+			consumers.putIfAbsent(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** The URLs of the index files that were loaded. */
+	public List<URL> getIndexes()
+	{
+		return Collections.unmodifiableList(indexes);
+	}
+
+	/**
+	 * The index and compatibility graph files that were skipped because they
+	 * could not be read, with the reason.
+	 */
+	public Map<URL,String> getErrors()
+	{
+		return Collections.unmodifiableMap(errors);
+	}
+
+	/** The class names of all services in the registry. */
+	public Set<String> getServiceNames()
+	{
+		return Collections.unmodifiableSet(services.keySet());
+	}
+
+	/** The class names of all data sources in the registry. */
+	public Set<String> getDataSourceNames()
+	{
+		return Collections.unmodifiableSet(dataSources.keySet());
+	}
+
+	/**
+	 * Returns the services that can consume the output of the given service,
+	 * as computed when the service's module was compiled.  Only services in
+	 * the same module are included.
+	 *
+	 * @return the class names of the services, empty if the service is not
+	 * in any compatibility graph.
+	 */
+	public Set<String> getCompatibleServices(String className)
+	{
+		Set<String> names = consumers.get(className);
+		return names == null ? Collections.<String>emptySet() : names;
+	}
+
+	/**
+	 * Returns true if the output of the producer can be used as the input
+	 * of the consumer.
+	 */
+	public boolean isCompatible(String producer, String consumer)
+	{
+		return getCompatibleServices(producer).contains(consumer);
+	}
+
+	/**
+	 * Returns the fingerprint of the formats, annotations and languages the
+	 * service requires and produces, or null if the service is not in an
+	 * index or the index was written with a different version of the
+	 * discriminator registry.
+	 */
+	public IOFingerprint getFingerprint(String className)
+	{
+		IndexFile.Location location = services.get(className);
+		return location == null ? null : location.fingerprint;
+	}
+
+	/**
+	 * Compares the fingerprints of two services from any modules on the
+	 * classpath.  Returns {@link IOFingerprint.Match#MAYBE} if either service
+	 * does not have a fingerprint.
+	 */
+	public IOFingerprint.Match match(String producer, String consumer)
+	{
+		IOFingerprint output = getFingerprint(producer);
+		IOFingerprint input = getFingerprint(consumer);
+		if (output == null || input == null)
+		{
+			return IOFingerprint.Match.MAYBE;
+		}
+		return output.canFeed(input);
+	}
+
+	/**
+	 * Returns the metadata for the service, or null if the class is not a
+	 * service in any index.
+	 */
+	public ServiceMetadata getServiceMetadata(String className) throws IOException
+	{
+		Object metadata = getCached(className);
+		if (metadata instanceof ServiceMetadata)
+		{
+			return (ServiceMetadata) metadata;
+		}
+		IndexFile.Location location = services.get(className);
+		if (location == null)
+		{
+			return null;
+		}
+		ServiceMetadata result = new ServiceMetadata(decode(location));
+		putCached(className, result);
+		return result;
+	}
+
+	/**
+	 * Returns the metadata for the data source, or null if the class is not a
+	 * data source in any index.
+	 */
+	public DataSourceMetadata getDataSourceMetadata(String className) throws IOException
+	{
+		Object metadata = getCached(className);
+		if (metadata instanceof DataSourceMetadata)
+		{
+			return (DataSourceMetadata) metadata;
+		}
+		IndexFile.Location location = dataSources.get(className);
+		if (location == null)
+		{
+			return null;
+		}
+		DataSourceMetadata result = new DataSourceMetadata(decode(location));
+		putCached(className, result);
+		return result;
+	}
+
+	/**
+	 * Returns the JSON for a service or data source, or null if the class is
+	 * not in any index.  The JSON is returned as stored unless the index was
+	 * written in a binary format.
+	 */
+	public String getJson(String className) throws IOException
+	{
+		IndexFile.Location location = services.get(className);
+		if (location == null)
+		{
+			location = dataSources.get(className);
+		}
+		if (location == null)
+		{
+			return null;
+		}
+		return location.index.getFormat().toJson(location.read());
+	}
+
+	private Map decode(IndexFile.Location location) throws IOException
+	{
+		return location.index.getFormat().read(location.read());
+	}
+
+	private Object getCached(String className)
+	{
+		synchronized (cache)
+		{
+			return cache.get(className);
+		}
+	}
+
+	private void putCached(String className, Object metadata)
+	{
+		synchronized (cache)
+		{
+			cache.put(className, metadata);
+		}
+	}
+}
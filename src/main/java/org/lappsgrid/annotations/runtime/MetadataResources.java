@@ -0,0 +1,84 @@
+/*-
+ * Copyright 2015 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.lappsgrid.annotations.runtime;
+
+import org.lappsgrid.metadata.DataSourceMetadata;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Loads the metadata files written by the processor from the class path,
+ * in any of the {@link MetadataFormat}s.
+ * <p>
+ * The binary formats are tried first since they are faster to decode, so a
+ * module compiled with <code>-Alappsgrid.format=json,smile</code> is read
+ * from the Smile file.
+ *
+ * @author Keith Suderman
+ */
+public final class MetadataResources
+{
+	/** Formats in the order they are tried. */
+	private static final MetadataFormat[] FORMATS = {
+			MetadataFormat.SMILE, MetadataFormat.CBOR, MetadataFormat.JSON
+	};
+
+	private MetadataResources() { }
+
+	/**
+	 * Returns the metadata for the service, or null if there is no metadata
+	 * file for the class.
+	 */
+	public static ServiceMetadata getServiceMetadata(ClassLoader loader, String className) throws IOException
+	{
+		Map<String,Object> map = load(loader, className);
+		return map == null ? null : new ServiceMetadata(map);
+	}
+
+	/**
+	 * Returns the metadata for the data source, or null if there is no
+	 * metadata file for the class.
+	 */
+	public static DataSourceMetadata getDataSourceMetadata(ClassLoader loader, String className) throws IOException
+	{
+		Map<String,Object> map = load(loader, className);
+		return map == null ? null : new DataSourceMetadata(map);
+	}
+
+	private static Map<String,Object> load(ClassLoader loader, String className) throws IOException
+	{
+		if (loader == null)
+		{
+			loader = MetadataResources.class.getClassLoader();
+		}
+		for (MetadataFormat format : FORMATS)
+		{
+			InputStream stream = loader.getResourceAsStream("metadata/" + className + "." + format.getExtension());
+			if (stream != null)
+			{
+				try (InputStream input = stream)
+				{
+					return format.read(input);
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,111 @@
+package org.lappsgrid.annotation.processing;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.lappsgrid.discriminator.Discriminator;
+import org.lappsgrid.discriminator.DiscriminatorRegistry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares the {@link DiscriminatorTable} with the lookups it replaced, which
+ * went to the {@link DiscriminatorRegistry} directly.
+ *
+ * @author Keith Suderman
+ */
+public class DiscriminatorTableTests
+{
+	@Test
+	public void testNames()
+	{
+		DiscriminatorResolver resolver = new DiscriminatorResolver();
+		String[] names = DiscriminatorRegistry.names();
+		assertTrue(names.length > 0);
+		for (String name : names)
+		{
+			assertEquals(name, registryLookup(name), resolver.getUri(name));
+			if (!name.startsWith("http"))
+			{
+				assertEquals(name, registryLookup(name), resolver.getValue(name));
+			}
+		}
+	}
+
+	@Test
+	public void testUris()
+	{
+		DiscriminatorResolver resolver = new DiscriminatorResolver();
+		for (Discriminator d : DiscriminatorRegistry.discriminators())
+		{
+			if (d.getUri() != null)
+			{
+				assertEquals(d.getUri(), registryLookup(d.getUri()), resolver.getUri(d.getUri()));
+				assertEquals(d.getUri(), resolver.getValue(d.getUri()));
+			}
+		}
+	}
+
+	@Test
+	public void testUnknownValues()
+	{
+		DiscriminatorResolver resolver = new DiscriminatorResolver();
+		assertNull(DiscriminatorTable.getInstance().get("no-such-discriminator"));
+		assertEquals("no-such-discriminator", resolver.getUri("no-such-discriminator"));
+		assertEquals("no-such-discriminator", resolver.getValue("no-such-discriminator"));
+		assertEquals("http://example.com/Type", resolver.getValue("http://example.com/Type"));
+		assertNull(resolver.getValue(""));
+		assertNull(resolver.getValue(null));
+		assertEquals(0, resolver.getHits());
+		assertEquals(1, resolver.getMisses());
+		assertEquals(1, resolver.getMemoHits());
+	}
+
+	@Test
+	public void testBounds()
+	{
+		DiscriminatorTable table = DiscriminatorTable.getInstance();
+		Set<String> keys = new HashSet<>();
+		for (String name : DiscriminatorRegistry.names())
+		{
+			if (DiscriminatorRegistry.getByName(name) != null)
+			{
+				keys.add(name);
+			}
+		}
+		for (Discriminator d : DiscriminatorRegistry.discriminators())
+		{
+			if (d.getUri() != null)
+			{
+				keys.add(d.getUri());
+			}
+		}
+		assertEquals(keys.size(), table.size());
+		// A power of two with at least half of the slots free, so probing
+		// always ends at an empty slot.
+		int capacity = table.capacity();
+		assertEquals(0, capacity & (capacity - 1));
+		assertTrue(table.size() * 2 <= capacity);
+		for (String key : keys)
+		{
+			assertNotNull(key, table.get(key));
+		}
+	}
+
+	/** The lookup used by the processor before the table was added. */
+	private static String registryLookup(String name)
+	{
+		Discriminator d = DiscriminatorRegistry.getByName(name);
+		if (d != null)
+		{
+			return d.getUri();
+		}
+		d = DiscriminatorRegistry.getByUri(name);
+		if (d != null)
+		{
+			return d.getUri();
+		}
+		return name;
+	}
+}
@@ -0,0 +1,130 @@
+package org.lappsgrid.annotation.processing;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * @author Keith Suderman
+ */
+public class VersionResolverTests
+{
+	private File directory;
+
+	@Before
+	public void setup() throws IOException
+	{
+		directory = Files.createTempDirectory("version").toFile();
+	}
+
+	@After
+	public void cleanup()
+	{
+		File[] files = directory.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testProjectVersion() throws IOException
+	{
+		write("pom.xml", pom("<parent><groupId>g</groupId><version>2.0.0</version></parent>\n" +
+				"<dependencies><dependency><artifactId>a</artifactId><version>9.9.9</version></dependency></dependencies>\n" +
+				"<version>1.2.3</version>\n"));
+		assertEquals("1.2.3", resolve());
+	}
+
+	@Test
+	public void testParentVersion() throws IOException
+	{
+		write("pom.xml", pom("<parent><groupId>g</groupId><version>2.0.0</version></parent>\n"));
+		assertEquals("2.0.0", resolve());
+	}
+
+	@Test
+	public void testNestedVersionsIgnored() throws IOException
+	{
+		write("pom.xml", pom("<dependencies><dependency><artifactId>a</artifactId><version>9.9.9</version></dependency></dependencies>\n" +
+				"<build><plugins><plugin><artifactId>p</artifactId><version>8.8.8</version></plugin></plugins></build>\n" +
+				"<parent><groupId>g</groupId><version>2.0.0</version></parent>\n" +
+				"<profiles><profile><dependencies><dependency><version>7.7.7</version></dependency></dependencies></profile></profiles>\n"));
+		assertEquals("2.0.0", resolve());
+	}
+
+	@Test
+	public void testNoVersion() throws IOException
+	{
+		write("pom.xml", pom("<dependencies><dependency><version>9.9.9</version></dependency></dependencies>\n"));
+		assertNull(resolve());
+	}
+
+	@Test
+	public void testNoFiles()
+	{
+		assertEquals(VersionResolver.UNKNOWN, resolve());
+	}
+
+	@Test
+	public void testVersionFileFirst() throws IOException
+	{
+		write("pom.xml", pom("<version>1.2.3</version>\n"));
+		write("VERSION", "3.0.0\nignored\n");
+		assertEquals("3.0.0", resolve());
+	}
+
+	@Test
+	public void testOverride() throws IOException
+	{
+		write("VERSION", "3.0.0\n");
+		assertEquals("4.0.0", new VersionResolver("4.0.0", directory).resolve(""));
+		assertEquals("5.0.0", new VersionResolver("4.0.0", directory).resolve("5.0.0"));
+	}
+
+	@Test
+	public void testCacheKey() throws IOException
+	{
+		File pom = write("pom.xml", pom("<version>1.0.0</version>\n"));
+		long modified = pom.lastModified();
+		assertEquals("1.0.0", resolve());
+
+		// Same path and modification time, the cached value is used.
+		write("pom.xml", pom("<version>1.0.1</version>\n"));
+		assertTrue(pom.setLastModified(modified));
+		assertEquals("1.0.0", resolve());
+
+		// A new modification time invalidates the entry.
+		assertTrue(pom.setLastModified(modified + 10000));
+		assertEquals("1.0.1", resolve());
+	}
+
+	private String resolve()
+	{
+		return new VersionResolver(null, directory).resolve("");
+	}
+
+	private String pom(String body)
+	{
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+				"<modelVersion>4.0.0</modelVersion>\n" +
+				body +
+				"</project>\n";
+	}
+
+	private File write(String name, String content) throws IOException
+	{
+		File file = new File(directory, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -12,6 +12,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,26 +40,6 @@ public class AnnotationTests extends CompilerBase
 		System.out.println("Cleanup complete.");
 	}
 
-	private static void delete(File file)
-	{
-		if (!file.exists())
-		{
-			return;
-		}
-
-		if (file.isDirectory())
-		{
-			for (File f : file.listFiles())
-			{
-				delete(f);
-			}
-		}
-		if (!file.delete())
-		{
-			System.out.println("Unable to delete " + file.getPath());
-		}
-	}
-
 	@Test
 	public void testDefaults() throws IOException
 	{
@@ -83,6 +68,52 @@ public class AnnotationTests extends CompilerBase
 		assertEquals("1.0.0", metadata.getVersion());
 	}
 
+	@Test
+	public void testVersionOption() throws IOException
+	{
+		String source = "package test;\n" +
+				  "import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				  "@ServiceMetadata\n" +
+				  "class Empty { }\n";
+		compile(source, "Empty", Arrays.asList("-Alappsgrid.version=2.0.0"));
+		ServiceMetadata metadata = getMetadata();
+		assertEquals("2.0.0", metadata.getVersion());
+	}
+
+	@Test
+	public void testThreadsOption() throws IOException
+	{
+		File output = Files.createTempDirectory("threads").toFile();
+		StringBuilder source = new StringBuilder("package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n");
+		for (int i = 0; i < 8; ++i)
+		{
+			source.append("@ServiceMetadata(format = {\"text\"})\n");
+			source.append("class Service" + i + " { }\n");
+			if (i == 2 || i == 5)
+			{
+				// Tag sets must be two names separated by white space.
+				source.append("@ServiceMetadata(requires_tagsets = {\"pos\"})\n");
+				source.append("class Invalid" + i + " { }\n");
+			}
+		}
+		source.append("class Empty { }\n");
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.outputDir=" + output.getPath(),
+				"-Alappsgrid.threads=4");
+		assertFalse(compile(source.toString(), "Empty", options));
+		for (int i = 0; i < 8; ++i)
+		{
+			ServiceMetadata metadata = getMetadata(new File(output, "metadata/test.Service" + i + ".json").getPath());
+			assertEquals("test.Service" + i, metadata.getName());
+			assertEquals(Uri.TEXT, metadata.getRequires().getFormat().get(0));
+		}
+		assertFalse(new File(output, "metadata/test.Invalid2.json").exists());
+		assertEquals(2, errors.size());
+		assertTrue(errors.get(0).contains("test.Invalid2"));
+		assertTrue(errors.get(1).contains("test.Invalid5"));
+		delete(output);
+	}
+
 	@Test
 	public void testFormat() throws IOException
 	{
@@ -136,6 +167,57 @@ public class AnnotationTests extends CompilerBase
 		assertEquals(Uri.APACHE2, metadata.getLicense());
 	}
 
+	@Test
+	public void testCommonMetadataChain() throws IOException
+	{
+		String source = "package test;\n" +
+				  "import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				  "import org.lappsgrid.annotations.CommonMetadata;\n" +
+				  "@CommonMetadata(vendor=\"anc\", license=\"apache2\")\n" +
+				  "class Root {}\n" +
+				  "@CommonMetadata(vendor=\"lapps\")\n" +
+				  "class Base extends Root {}\n" +
+				  "class Middle extends Base {}\n" +
+				  "@ServiceMetadata(requires=\"token\")\n" +
+				  "class Empty extends Middle {}\n";
+		compile(source);
+		ServiceMetadata metadata = getMetadata();
+		assertNotNull(metadata);
+		assertEquals("lapps", metadata.getVendor());
+		assertEquals(Uri.APACHE2, metadata.getLicense());
+	}
+
+	@Test
+	public void testPackageMetadata() throws IOException
+	{
+		String parent = "@CommonMetadata(vendor=\"anc\", license=\"apache2\", language=\"en\")\n" +
+				  "package test;\n" +
+				  "import org.lappsgrid.annotations.CommonMetadata;\n";
+		String child = "@CommonMetadata(vendor=\"lapps\")\n" +
+				  "package test.child;\n" +
+				  "import org.lappsgrid.annotations.CommonMetadata;\n";
+		String source = "package test.child;\n" +
+				  "import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				  "import org.lappsgrid.annotations.CommonMetadata;\n" +
+				  "@CommonMetadata(language=\"de\")\n" +
+				  "class Base {}\n" +
+				  "@ServiceMetadata\n" +
+				  "class Empty extends Base {}\n";
+		List<MemoryJavaFileObject> units = Arrays.asList(
+				  new MemoryJavaFileObject("test/package-info", parent),
+				  new MemoryJavaFileObject("test/child/package-info", child),
+				  new MemoryJavaFileObject("test/child/Empty", source));
+		File output = Files.createTempDirectory("package").toFile();
+		assertTrue(compile(units, Arrays.asList("-d", output.getPath())));
+		delete(output);
+		ServiceMetadata metadata = getMetadata("src/main/resources/metadata/test.child.Empty.json");
+		assertNotNull(metadata);
+		// The class chain wins over the package and the package over its parent.
+		assertEquals("de", metadata.getRequires().getLanguage().get(0));
+		assertEquals("lapps", metadata.getVendor());
+		assertEquals(Uri.APACHE2, metadata.getLicense());
+	}
+
 	@Test
 	public void testLicense() throws IOException
 	{
@@ -215,6 +297,144 @@ public class AnnotationTests extends CompilerBase
 
 	}
 
+	@Test
+	public void testFilerOutput() throws IOException
+	{
+		File output = Files.createTempDirectory("metadata").toFile();
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"filer\")\n" +
+				"class Empty { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.output=filer");
+		assertTrue(compile(source, "Empty", options));
+		ServiceMetadata metadata = getMetadata(new File(output, "metadata/test.Empty.json").getPath());
+		assertEquals("filer", metadata.getName());
+		delete(output);
+	}
+
+	@Test
+	public void testUnchangedFilesNotWritten() throws IOException
+	{
+		File output = Files.createTempDirectory("unchanged").toFile();
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"unchanged\", version=\"1.0.0\")\n" +
+				"class Empty { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.outputDir=" + output.getPath());
+		assertTrue(compile(source, "Empty", options));
+		File file = new File(output, "metadata/test.Empty.json");
+		assertTrue(file.setLastModified(1000));
+
+		assertTrue(compile(source, "Empty", options));
+		assertEquals(1000, file.lastModified());
+
+		assertTrue(compile(source.replace("1.0.0", "1.0.1"), "Empty", options));
+		assertTrue(file.lastModified() > 1000);
+		delete(output);
+	}
+
+	@Test
+	public void testReport() throws IOException
+	{
+		File output = Files.createTempDirectory("report").toFile();
+		File report = new File(output, "report.json");
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(requires=\"token\")\n" +
+				"abstract class Base { }\n" +
+				"class Empty extends Base { }\n" +
+				"@ServiceMetadata(produces=\"token\")\n" +
+				"class Tokenizer { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.outputDir=" + output.getPath(),
+				"-Alappsgrid.report=" + report.getPath());
+		assertTrue(compile(source, "Empty", options));
+		assertTrue(report.exists());
+		Map map = Serializer.parse(getText(report), Map.class);
+		assertTrue(map.get("totalMillis") instanceof Number);
+		assertEquals(2, ((List) map.get("roundMillis")).size());
+		Map phases = (Map) map.get("phaseMillis");
+		for (String phase : Arrays.asList("scan", "extract", "merge", "discriminators", "version", "serialize", "io"))
+		{
+			assertTrue("Missing phase " + phase, phases.get(phase) instanceof Number);
+		}
+		Map counters = (Map) map.get("counters");
+		assertEquals(2, counters.get("classes"));
+		assertEquals(1, counters.get("skippedAbstract"));
+		assertEquals(2, counters.get("filesWritten"));
+		assertEquals(0, counters.get("filesUnchanged"));
+		assertEquals(0, counters.get("errors"));
+		assertEquals(0, counters.get("cacheHits"));
+		assertTrue(((Number) counters.get("discriminatorHits")).intValue() > 0);
+		delete(output);
+	}
+
+	@Test
+	public void testMetadataCache() throws IOException
+	{
+		File output = Files.createTempDirectory("cache").toFile();
+		File report = new File(output, "report.json");
+		File json = new File(output, "metadata/test.Empty.json");
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(requires=\"token\", language=\"en\")\n" +
+				"class Empty { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.outputDir=" + output.getPath(),
+				"-Alappsgrid.cacheDir=" + new File(output, "cache").getPath(), "-Alappsgrid.report=" + report.getPath(),
+				"-Alappsgrid.version=1.0.0");
+		assertTrue(compile(source, "Empty", options));
+		assertEquals(1, getCounter(report, "cacheMisses"));
+		String generated = getText(json);
+		assertTrue(json.delete());
+
+		assertTrue(compile(source, "Empty", options));
+		assertEquals(1, getCounter(report, "cacheHits"));
+		assertEquals(generated, getText(json));
+
+		// The project version is part of the salt.
+		List<String> changed = new ArrayList<>(options);
+		changed.set(changed.size() - 1, "-Alappsgrid.version=1.0.1");
+		assertTrue(compile(source, "Empty", changed));
+		assertEquals(0, getCounter(report, "cacheHits"));
+		assertEquals(1, getCounter(report, "cacheMisses"));
+		assertEquals("1.0.1", getMetadata(json.getPath()).getVersion());
+		delete(output);
+	}
+
+	private int getCounter(File report, String name)
+	{
+		Map counters = (Map) Serializer.parse(getText(report), Map.class).get("counters");
+		return ((Number) counters.get(name)).intValue();
+	}
+
+	@Test
+	public void testMetadataHolder() throws Exception
+	{
+		File output = Files.createTempDirectory("holder").toFile();
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"holder\", version=\"1.2.3\", requires_format=\"text\", produces_format=\"lif\", requires=\"token\", produces={\"token\", \"pos\"})\n" +
+				"class Empty { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-s", output.getPath(),
+				"-Alappsgrid.outputDir=" + output.getPath(), "-Alappsgrid.holders=true");
+		assertTrue(compile(source, "Empty", options));
+		assertTrue(new File(output, "test/EmptyMetadataHolder.java").exists());
+
+		URL[] urls = new URL[] { output.toURI().toURL() };
+		Class<?> holder = Class.forName("test.EmptyMetadataHolder", true, new URLClassLoader(urls, getClass().getClassLoader()));
+		assertEquals(getText(new File(output, "metadata/test.Empty.json")), holder.getField("JSON").get(null));
+		ServiceMetadata metadata = (ServiceMetadata) holder.getMethod("getMetadata").invoke(null);
+		assertEquals("holder", metadata.getName());
+		assertEquals("1.2.3", metadata.getVersion());
+		ServiceMetadata expected = getMetadata(new File(output, "metadata/test.Empty.json").getPath());
+		assertEquals(expected.getRequires().getFormat(), metadata.getRequires().getFormat());
+		assertEquals(expected.getRequires().getAnnotations(), metadata.getRequires().getAnnotations());
+		assertEquals(expected.getProduces().getFormat(), metadata.getProduces().getFormat());
+		assertEquals(expected.getProduces().getAnnotations(), metadata.getProduces().getAnnotations());
+		assertEquals(2, metadata.getProduces().getAnnotations().size());
+		assertSame(metadata, holder.getMethod("getMetadata").invoke(null));
+		delete(output);
+	}
+
 	public static String read(InputStream input) throws IOException {
 		try (BufferedReader buffer = new BufferedReader(new InputStreamReader(input))) {
 			return buffer.lines().collect(Collectors.joining("\n"));
@@ -13,6 +13,7 @@ import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
 import java.io.*;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,9 @@ public class CompilerBase
 {
 //    protected JavaCompiler compiler
 
+	/** The error messages reported by the last compilation, in order. */
+	protected List<String> errors = new ArrayList<>();
+
 //    @BeforeClass
 //    static void testSetup() {
 //        File directory = new File("src/main/resources/metadata")
@@ -56,20 +60,34 @@ public class CompilerBase
 	}
 
 	Boolean compile(String src, String className)
+	{
+		return compile(src, className, null);
+	}
+
+	Boolean compile(String src, String className, List<String> options)
 	{
 		System.out.println("Compiling " + className);
-		List units = Arrays.asList(new MemoryJavaFileObject(className, src));
+		return compile(Arrays.asList(new MemoryJavaFileObject(className, src)), options);
+	}
+
+	Boolean compile(List<? extends JavaFileObject> units, List<String> options)
+	{
 		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector();
 		StringWriter stdout = new StringWriter();
 		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		JavaCompiler.CompilationTask task = compiler.getTask(stdout, null, diagnostics, null, null, units);
+		JavaCompiler.CompilationTask task = compiler.getTask(stdout, null, diagnostics, options, null, units);
 		List processors = Arrays.asList(new MetadataProcessor());
 		task.setProcessors(processors);
 		boolean result = task.call();
+		errors = new ArrayList<>();
 		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
 		{
 			Diagnostic.Kind kind = diagnostic.getKind();
 			System.out.println(diagnostic.getMessage(null));
+			if (kind == Diagnostic.Kind.ERROR)
+			{
+				errors.add(diagnostic.getMessage(null));
+			}
 //            if (kind == Diagnostic.Kind.WARNING || kind == Diagnostic.Kind.ERROR) {
 //                println diagnostic.getMessage(Locale.US)
 //            }
@@ -113,6 +131,29 @@ public class CompilerBase
 		return new DataSourceMetadata(map);
 	}
 
+	/**
+	 * Deletes a file or a directory and everything in it.
+	 */
+	protected static void delete(File file)
+	{
+		if (!file.exists())
+		{
+			return;
+		}
+
+		if (file.isDirectory())
+		{
+			for (File f : file.listFiles())
+			{
+				delete(f);
+			}
+		}
+		if (!file.delete())
+		{
+			System.out.println("Unable to delete " + file.getPath());
+		}
+	}
+
 	protected String getText(File file)
 	{
 		final int SIZE = 4096;
@@ -36,7 +36,8 @@ public class MemoryJavaFileObject implements JavaFileObject
 	@Override
 	public boolean isNameCompatible(String simpleName, JavaFileObject.Kind kind)
 	{
-		return false;
+		// The name may include the package path, e.g. test/package-info
+		return kind == getKind() && name.substring(name.lastIndexOf('/') + 1).equals(simpleName);
 	}
 
 	@Override
@@ -54,7 +55,7 @@ public class MemoryJavaFileObject implements JavaFileObject
 	@Override
 	public URI toUri()
 	{
-		return URI.create("string://text/Empty");
+		return URI.create("string://text/" + name);
 	}
 
 	@Override
@@ -0,0 +1,358 @@
+package org.lappsgrid.annotation.processor;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+import org.lappsgrid.annotation.processing.MetadataScanner;
+import org.lappsgrid.annotations.runtime.IOFingerprint.Match;
+import org.lappsgrid.annotations.runtime.MetadataReader;
+import org.lappsgrid.annotations.runtime.MetadataRegistry;
+import org.lappsgrid.metadata.DataSourceMetadata;
+import org.lappsgrid.metadata.ServiceMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Keith Suderman
+ */
+public class MetadataRegistryTests extends CompilerBase
+{
+	private File output;
+
+	@Before
+	public void setup() throws IOException
+	{
+		output = Files.createTempDirectory("registry").toFile();
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"import org.lappsgrid.annotations.DataSourceMetadata;\n" +
+				"@ServiceMetadata(name=\"service\", version=\"1.0.0\")\n" +
+				"class Empty { }\n" +
+				"@DataSourceMetadata(version=\"2.0.0\")\n" +
+				"class Source { }\n" +
+				"@ServiceMetadata(requires_format=\"text\", produces_format=\"lif\", produces=\"token\", language=\"en\")\n" +
+				"class Tokenizer { }\n" +
+				"@ServiceMetadata(format=\"lif\", requires=\"token\", produces=\"pos\", language=\"en\")\n" +
+				"class Tagger { }\n" +
+				"@ServiceMetadata(format=\"lif\", requires=\"custom\", produces=\"pos\", language=\"en\")\n" +
+				"class Custom { }\n" +
+				"@org.lappsgrid.annotations.retained.ServiceMetadata(version=\"1.0.0\", requires=\"token\")\n" +
+				"class Retained { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.output=filer", "-Alappsgrid.index=true");
+		assertTrue(compile(source, "Empty", options));
+	}
+
+	@After
+	public void cleanup()
+	{
+		delete(output);
+	}
+
+	@Test
+	public void testLoadIndex() throws IOException
+	{
+		MetadataRegistry registry = getRegistry();
+		assertEquals(1, registry.getIndexes().size());
+		assertTrue(registry.getServiceNames().contains("test.Empty"));
+		assertTrue(registry.getDataSourceNames().contains("test.Source"));
+	}
+
+	@Test
+	public void testServiceMetadata() throws IOException
+	{
+		MetadataRegistry registry = getRegistry();
+		ServiceMetadata metadata = registry.getServiceMetadata("test.Empty");
+		assertNotNull(metadata);
+		assertEquals("service", metadata.getName());
+		assertEquals("1.0.0", metadata.getVersion());
+		assertSame(metadata, registry.getServiceMetadata("test.Empty"));
+		assertNull(registry.getServiceMetadata("test.Source"));
+	}
+
+	@Test
+	public void testDataSourceMetadata() throws IOException
+	{
+		MetadataRegistry registry = getRegistry();
+		DataSourceMetadata metadata = registry.getDataSourceMetadata("test.Source");
+		assertNotNull(metadata);
+		assertEquals("2.0.0", metadata.getVersion());
+		assertNotNull(registry.getJson("test.Source"));
+	}
+
+	@Test
+	public void testPartialBuild() throws IOException
+	{
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"changed\", version=\"1.0.0\")\n" +
+				"class Empty { }\n";
+		String classpath = output.getPath() + File.pathSeparator + System.getProperty("java.class.path");
+		List<String> options = Arrays.asList("-d", output.getPath(), "-classpath", classpath,
+				"-Alappsgrid.output=filer", "-Alappsgrid.index=true");
+		assertTrue(compile(source, "Empty", options));
+		MetadataRegistry registry = getRegistry();
+		assertEquals("changed", registry.getServiceMetadata("test.Empty").getName());
+		assertNotNull(registry.getServiceMetadata("test.Tagger"));
+		assertNotNull(registry.getDataSourceMetadata("test.Source"));
+		assertTrue(registry.getCompatibleServices("test.Tokenizer").contains("test.Tagger"));
+	}
+
+	@Test
+	public void testCompatibilityRules() throws IOException
+	{
+		File graph = Files.createTempDirectory("graph").toFile();
+		try
+		{
+			String source = "package test;\n" +
+					"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+					"@ServiceMetadata(produces_format=\"lif\", produces={\"token\", \"pos\"}, produces_language=\"en\", produces_tagsets=\"pos tags-pos-penntb\")\n" +
+					"class Producer { }\n" +
+					"@ServiceMetadata(requires_format={\"gate\", \"lif\"}, requires=\"token\", requires_language={\"de\", \"en\"}, requires_tagsets=\"pos tags-pos-penntb\")\n" +
+					"class Matching { }\n" +
+					"@ServiceMetadata(requires=\"token\")\n" +
+					"class Unconstrained { }\n" +
+					"@ServiceMetadata(requires_format=\"gate\", requires=\"token\")\n" +
+					"class OtherFormat { }\n" +
+					"@ServiceMetadata(requires_format=\"lif\", requires={\"token\", \"ne\"})\n" +
+					"class MissingAnnotation { }\n" +
+					"@ServiceMetadata(requires_format=\"lif\", requires=\"token\", requires_language=\"de\")\n" +
+					"class OtherLanguage { }\n" +
+					"@ServiceMetadata(requires_format=\"lif\", requires=\"token\", requires_tagsets=\"pos tags-pos#other\")\n" +
+					"class OtherTagSet { }\n";
+			List<String> options = Arrays.asList("-d", graph.getPath(), "-Alappsgrid.output=filer", "-Alappsgrid.index=true");
+			assertTrue(compile(source, "Producer", options));
+			MetadataRegistry registry = new MetadataRegistry(new URLClassLoader(new URL[] { graph.toURI().toURL() }, null));
+			// Overlapping formats and languages, contained annotations and equal tag sets.
+			assertTrue(registry.isCompatible("test.Producer", "test.Matching"));
+			// Requirements that are not given do not constrain the producer.
+			assertTrue(registry.isCompatible("test.Producer", "test.Unconstrained"));
+			assertFalse(registry.isCompatible("test.Producer", "test.OtherFormat"));
+			assertFalse(registry.isCompatible("test.Producer", "test.MissingAnnotation"));
+			assertFalse(registry.isCompatible("test.Producer", "test.OtherLanguage"));
+			assertFalse(registry.isCompatible("test.Producer", "test.OtherTagSet"));
+			assertEquals(new HashSet<>(Arrays.asList("test.Matching", "test.Unconstrained")),
+					registry.getCompatibleServices("test.Producer"));
+		}
+		finally
+		{
+			delete(graph);
+		}
+	}
+
+	@Test
+	public void testShortNamesAndUris() throws IOException
+	{
+		File graph = Files.createTempDirectory("graph").toFile();
+		try
+		{
+			String source = "package test;\n" +
+					"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+					"@ServiceMetadata(produces_format=\"lif\", produces=\"token\")\n" +
+					"class ShortProducer { }\n" +
+					"@ServiceMetadata(requires_format=\"" + Uri.LIF + "\", requires=\"" + Uri.TOKEN + "\")\n" +
+					"class UriConsumer { }\n" +
+					"@ServiceMetadata(produces_format=\"" + Uri.LIF + "\", produces=\"" + Uri.TOKEN + "\")\n" +
+					"class UriProducer { }\n" +
+					"@ServiceMetadata(requires_format=\"lif\", requires=\"token\")\n" +
+					"class ShortConsumer { }\n";
+			List<String> options = Arrays.asList("-d", graph.getPath(), "-Alappsgrid.output=filer", "-Alappsgrid.index=true");
+			assertTrue(compile(source, "ShortProducer", options));
+			MetadataRegistry registry = new MetadataRegistry(new URLClassLoader(new URL[] { graph.toURI().toURL() }, null));
+			assertTrue(registry.isCompatible("test.ShortProducer", "test.UriConsumer"));
+			assertTrue(registry.isCompatible("test.UriProducer", "test.ShortConsumer"));
+			assertEquals(Match.YES, registry.match("test.ShortProducer", "test.UriConsumer"));
+			assertEquals(Match.YES, registry.match("test.UriProducer", "test.ShortConsumer"));
+		}
+		finally
+		{
+			delete(graph);
+		}
+	}
+
+	@Test
+	public void testFingerprints() throws IOException
+	{
+		MetadataRegistry registry = getRegistry();
+		assertTrue(registry.getFingerprint("test.Tokenizer").isExact());
+		assertFalse(registry.getFingerprint("test.Custom").isExact());
+		assertEquals(Match.YES, registry.match("test.Tokenizer", "test.Tagger"));
+		assertEquals(Match.NO, registry.match("test.Tagger", "test.Tokenizer"));
+		assertEquals(Match.NO, registry.match("test.Tokenizer", "test.Custom"));
+		assertEquals(Match.MAYBE, registry.match("test.Tokenizer", "test.Source"));
+		assertEquals(registry.isCompatible("test.Tokenizer", "test.Tagger"),
+				registry.match("test.Tokenizer", "test.Tagger") == Match.YES);
+	}
+
+	@Test
+	public void testTableFingerprint() throws IOException
+	{
+		// Pretend the index was written with other discriminator ids.
+		File file = new File(output, "META-INF/lappsgrid/metadata.index");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[9] ^= 1;
+		Files.write(file.toPath(), bytes);
+		MetadataRegistry registry = getRegistry();
+		assertNull(registry.getFingerprint("test.Tokenizer"));
+		assertEquals(Match.MAYBE, registry.match("test.Tokenizer", "test.Tagger"));
+		assertEquals(Match.MAYBE, registry.match("test.Tagger", "test.Tokenizer"));
+		assertNotNull(registry.getServiceMetadata("test.Tokenizer"));
+	}
+
+	@Test
+	public void testMergeWithOtherTable() throws IOException
+	{
+		// The fingerprints of the classes that are not compiled again are
+		// computed from their metadata.
+		File file = new File(output, "META-INF/lappsgrid/metadata.index");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[9] ^= 1;
+		Files.write(file.toPath(), bytes);
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"changed\", version=\"1.0.0\")\n" +
+				"class Empty { }\n";
+		String classpath = output.getPath() + File.pathSeparator + System.getProperty("java.class.path");
+		List<String> options = Arrays.asList("-d", output.getPath(), "-classpath", classpath,
+				"-Alappsgrid.output=filer", "-Alappsgrid.index=true");
+		assertTrue(compile(source, "Empty", options));
+		MetadataRegistry registry = getRegistry();
+		assertNotNull(registry.getFingerprint("test.Tokenizer"));
+		assertEquals(Match.YES, registry.match("test.Tokenizer", "test.Tagger"));
+	}
+
+	@Test
+	public void testIndexVersion() throws IOException
+	{
+		// Only the current version of the index is read.
+		File file = new File(output, "META-INF/lappsgrid/metadata.index");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[7] = 2;
+		Files.write(file.toPath(), bytes);
+		MetadataRegistry registry = getRegistry();
+		assertEquals(0, registry.getIndexes().size());
+		assertTrue(registry.getServiceNames().isEmpty());
+		String error = registry.getErrors().get(file.toURI().toURL());
+		assertNotNull(error);
+		assertTrue(error, error.startsWith("Unsupported metadata index version 2"));
+	}
+
+	@Test
+	public void testSkipBadFiles() throws IOException
+	{
+		// A stale index and graph earlier on the classpath do not hide the good ones.
+		File stale = Files.createTempDirectory("stale").toFile();
+		try
+		{
+			File index = new File(stale, "META-INF/lappsgrid/metadata.index");
+			assertTrue(index.getParentFile().mkdirs());
+			Files.write(index.toPath(), new byte[] { 'L', 'G', 'M', 'I', 0, 0 });
+			File graph = new File(stale, "META-INF/lappsgrid/compatibility.index");
+			Files.write(graph.toPath(), "{\"version\":1,\"services\":[".getBytes(StandardCharsets.UTF_8));
+			URL[] urls = new URL[] { stale.toURI().toURL(), output.toURI().toURL() };
+			MetadataRegistry registry = new MetadataRegistry(new URLClassLoader(urls, null));
+			assertEquals(2, registry.getErrors().size());
+			assertTrue(registry.getErrors().containsKey(index.toURI().toURL()));
+			assertTrue(registry.getErrors().containsKey(graph.toURI().toURL()));
+			assertEquals(1, registry.getIndexes().size());
+			assertNotNull(registry.getServiceMetadata("test.Tagger"));
+			assertTrue(registry.isCompatible("test.Tokenizer", "test.Tagger"));
+		}
+		finally
+		{
+			delete(stale);
+		}
+	}
+
+	@Test
+	public void testMetadataReader() throws Exception
+	{
+		URL[] urls = new URL[] { output.toURI().toURL() };
+		Class<?> type = Class.forName("test.Retained", false, new URLClassLoader(urls, getClass().getClassLoader()));
+		ServiceMetadata metadata = MetadataReader.getServiceMetadata(type);
+		assertNotNull(metadata);
+		assertSame(metadata, MetadataReader.getServiceMetadata(type));
+		assertNull(MetadataReader.getDataSourceMetadata(type));
+		assertEquals(getRegistry().getJson("test.Retained"), MetadataReader.getJson(type));
+		assertNull(MetadataReader.getJson(MetadataRegistryTests.class));
+	}
+
+	@Test
+	public void testMetadataScanner() throws Exception
+	{
+		File scanned = Files.createTempDirectory("scanner").toFile();
+		try
+		{
+			Map<String,String> options = new HashMap<>();
+			options.put("lappsgrid.outputDir", scanned.getPath());
+			assertEquals(0, new MetadataScanner(options).scan(Collections.singletonList(output)));
+			File file = new File(scanned, "metadata/test.Retained.json");
+			assertTrue(file.exists());
+			String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			assertEquals(getRegistry().getJson("test.Retained"), json);
+			// The source retained annotations are not in the class files.
+			assertFalse(new File(scanned, "metadata/test.Empty.json").exists());
+		}
+		finally
+		{
+			delete(scanned);
+		}
+	}
+
+	@Test
+	public void testScannerWithoutRetainedAnnotations() throws Exception
+	{
+		File classes = Files.createTempDirectory("classes").toFile();
+		File scanned = Files.createTempDirectory("scanner").toFile();
+		PrintStream err = System.err;
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		try
+		{
+			String source = "package test;\n" +
+					"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+					"@ServiceMetadata(name=\"service\", version=\"1.0.0\")\n" +
+					"class Empty { }\n";
+			List<String> options = Arrays.asList("-d", classes.getPath(), "-Alappsgrid.output=filer");
+			assertTrue(compile(source, "Empty", options));
+			Map<String,String> scannerOptions = new HashMap<>();
+			scannerOptions.put("lappsgrid.outputDir", scanned.getPath());
+			scannerOptions.put("lappsgrid.index", "true");
+			System.setErr(new PrintStream(messages, true, "UTF-8"));
+			assertEquals(0, new MetadataScanner(scannerOptions).scan(Collections.singletonList(classes)));
+		}
+		finally
+		{
+			System.setErr(err);
+		}
+		try
+		{
+			String log = new String(messages.toByteArray(), StandardCharsets.UTF_8);
+			assertTrue(log, log.contains("No classes with runtime retained metadata annotations in " + classes.getPath()));
+			assertEquals(0, scanned.list().length);
+		}
+		finally
+		{
+			delete(classes);
+			delete(scanned);
+		}
+	}
+
+	private MetadataRegistry getRegistry() throws IOException
+	{
+		URL[] urls = new URL[] { output.toURI().toURL() };
+		return new MetadataRegistry(new URLClassLoader(urls, null));
+	}
+}
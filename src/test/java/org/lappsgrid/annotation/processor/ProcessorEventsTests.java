@@ -0,0 +1,130 @@
+package org.lappsgrid.annotation.processor;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.lappsgrid.annotation.processing.MetadataProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Needs the jdk.jfr API and is not compiled on JDKs before Java 11.
+ *
+ * @author Keith Suderman
+ */
+public class ProcessorEventsTests extends CompilerBase
+{
+	private static final String PACKAGE = "org.lappsgrid.annotation.processing.";
+
+	@Test
+	public void testEventsRecorded() throws IOException
+	{
+		File output = Files.createTempDirectory("events").toFile();
+		Path dump = new File(output, "events.jfr").toPath();
+		String source = "package test;\n" +
+				"import org.lappsgrid.annotations.ServiceMetadata;\n" +
+				"@ServiceMetadata(name=\"events\")\n" +
+				"class Empty { }\n";
+		List<String> options = Arrays.asList("-d", output.getPath(), "-Alappsgrid.outputDir=" + output.getPath());
+		try (Recording recording = new Recording())
+		{
+			recording.enable("org.lappsgrid.annotation.Element");
+			recording.enable("org.lappsgrid.annotation.Write");
+			recording.start();
+			assertTrue(compile(source, "Empty", options));
+			recording.stop();
+			recording.dump(dump);
+		}
+		boolean element = false;
+		boolean write = false;
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump))
+		{
+			String name = event.getEventType().getName();
+			if (name.equals("org.lappsgrid.annotation.Element") && "test.Empty".equals(event.getString("className")))
+			{
+				assertEquals("service", event.getString("kind"));
+				assertTrue(event.getInt("size") > 0);
+				element = true;
+			}
+			else if (name.equals("org.lappsgrid.annotation.Write") && "metadata/test.Empty.json".equals(event.getString("path")))
+			{
+				assertTrue(event.getBoolean("written"));
+				write = true;
+			}
+		}
+		assertTrue("No element event", element);
+		assertTrue("No write event", write);
+		delete(output);
+	}
+
+	@Test
+	public void testJfrEventsUsed() throws Exception
+	{
+		assertEquals(PACKAGE + "JfrProcessorEvents", getEvents(MetadataProcessor.class.getClassLoader()).getName());
+	}
+
+	@Test
+	public void testFallbackWithoutJfr() throws Exception
+	{
+		URL classes = MetadataProcessor.class.getProtectionDomain().getCodeSource().getLocation();
+		ClassLoader loader = new WithoutJfr(classes, getClass().getClassLoader());
+		assertEquals(PACKAGE + "ProcessorEvents", getEvents(loader).getName());
+	}
+
+	/**
+	 * The class of the events instance the processor uses when loaded by the
+	 * class loader.
+	 */
+	private Class<?> getEvents(ClassLoader loader) throws Exception
+	{
+		Class<?> type = Class.forName(PACKAGE + "ProcessorEvents", true, loader);
+		Method getInstance = type.getDeclaredMethod("getInstance");
+		getInstance.setAccessible(true);
+		return getInstance.invoke(null).getClass();
+	}
+
+	/**
+	 * Loads the processor classes itself and hides the jdk.jfr API, as on a
+	 * Java 8 runtime without Flight Recorder.
+	 */
+	private static class WithoutJfr extends URLClassLoader
+	{
+		WithoutJfr(URL classes, ClassLoader parent)
+		{
+			super(new URL[] { classes }, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+		{
+			if (name.startsWith("jdk.jfr."))
+			{
+				throw new ClassNotFoundException(name);
+			}
+			if (!name.startsWith(PACKAGE))
+			{
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name))
+			{
+				Class<?> type = findLoadedClass(name);
+				if (type == null)
+				{
+					type = findClass(name);
+				}
+				return type;
+			}
+		}
+	}
+}